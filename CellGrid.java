@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.awt.geom.Point2D;
+
+
+/**
+ * CellGrid - a uniform grid of square cells laid over the world of a Manet.
+ * 	Each cell holds the Nodes whose coordinates fall inside of it, so that
+ * 	neighbor discovery only has to look at the cells around a point instead
+ * 	of every node in the graph.
+ *
+ * Coordinates outside of the world are clamped into the edge cells.
+ */
+public class CellGrid {
+
+    private double origin;
+    private double cell_size;
+    private int dim;
+    private ArrayList<ArrayList<Node>> cells;
+
+    // Returned for cells outside of the grid so callers can always iterate
+    private final ArrayList<Node> empty = new ArrayList<Node>(0);
+
+
+    /**
+     * Constructor CellGrid(world_limit, cell_size)
+     *
+     * @param world_limit - width of the (square, origin centered) world
+     * @param cell_size - width of a cell, must cover the longest possible link
+     */
+    public CellGrid(double world_limit, double cell_size) {
+        this.origin = -(world_limit / 2);
+        this.cell_size = cell_size;
+        this.dim = Math.max(1, (int) Math.ceil(world_limit / cell_size));
+
+        this.cells = new ArrayList<ArrayList<Node>>(dim * dim);
+        for (int i = 0; i < dim * dim; i++) {
+            this.cells.add(new ArrayList<Node>());
+        }
+    }
+
+
+    /**
+     * column(x) / row(y)
+     * 	Maps a coordinate to the index of the cell containing it.
+     */
+    public int column(double x) { return clamp((int) Math.floor((x - origin) / cell_size)); }
+    public int row(double y) { return clamp((int) Math.floor((y - origin) / cell_size)); }
+
+    private int clamp(int index) {
+        if (index < 0) { return 0; }
+        if (index >= dim) { return dim - 1; }
+        return index;
+    }
+
+
+    /**
+     * cell(column, row)
+     *
+     * @return the Nodes in the given cell, empty if it is outside of the grid
+     */
+    public ArrayList<Node> cell(int column, int row) {
+        if (column < 0 || column >= dim || row < 0 || row >= dim) {
+            return empty;
+        }
+        return cells.get(row * dim + column);
+    }
+
+
+    public void add(Node node) {
+        cell(column(node.getX()), row(node.getY())).add(node);
+    }
+
+
+    /**
+     * remove(node)
+     * 	Order inside a cell does not matter, so the last node of the cell is
+     * 	swapped into the hole left by the removed one.
+     *
+     * @return true if the node was found in its cell
+     */
+    public boolean remove(Node node) {
+        ArrayList<Node> cell = cell(column(node.getX()), row(node.getY()));
+        int index = cell.indexOf(node);
+        if (index < 0) {
+            return false;
+        }
+
+        int last = cell.size() - 1;
+        cell.set(index, cell.get(last));
+        cell.remove(last);
+        return true;
+    }
+
+
+    /**
+     * nearest(x, y)
+     * 	Finds the node closest to a point. The search starts in the cell of the
+     * 	point and widens outward one ring of cells at a time, stopping once no
+     * 	unvisited ring can hold anything closer than the best node found.
+     *
+     * @return closest Node, or null if the grid is empty
+     */
+    public Node nearest(double x, double y) {
+        int cx = column(x);
+        int cy = row(y);
+
+        // Clamped points can't bound the unvisited rings, so search them all
+        boolean inside = x >= origin && y >= origin
+            && x < origin + dim * cell_size && y < origin + dim * cell_size;
+
+        double minimum_distance = Double.MAX_VALUE;
+        Node closest_node = null;
+
+        for (int r = 0; r < dim; r++) {
+            for (int i = cx - r; i <= cx + r; i++) {
+                for (int j = cy - r; j <= cy + r; j++) {
+                    // Only the outer ring, the inner ones are already done
+                    if (i != cx - r && i != cx + r && j != cy - r && j != cy + r) {
+                        continue;
+                    }
+
+                    for (Node node : cell(i, j)) {
+                        double distance = Point2D.distance(x, y, node.getX(), node.getY());
+
+                        if (distance < minimum_distance) {
+                            minimum_distance = distance;
+                            closest_node = node;
+                        }
+                    }
+                }
+            }
+
+            // Anything in ring r + 1 or further is at least this far away
+            double bound = Math.min(
+                Math.min(x - (origin + (cx - r) * cell_size), (origin + (cx + r + 1) * cell_size) - x),
+                Math.min(y - (origin + (cy - r) * cell_size), (origin + (cy + r + 1) * cell_size) - y));
+
+            if (inside && closest_node != null && minimum_distance <= bound) {
+                break;
+            }
+        }
+
+        return closest_node;
+    }
+
+
+    public double getCellSize() { return this.cell_size; }
+    public int getDim() { return this.dim; }
+}
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+
+/**
+ * FloodBFS - breadth first search over a Topology, the flood of a message
+ * 	from one node to every node it can reach.
+ *
+ * The search is direction optimizing: while the frontier is small, each
+ * 	frontier node pushes to its unvisited neighbors (top-down). Once the
+ * 	edges out of the frontier outweigh the edges left to explore, each
+ * 	unvisited node instead looks for a neighbor in the frontier and stops
+ * 	at the first one (bottom-up), which skips most edges of the big middle
+ * 	layers of a dense graph. It goes back to top-down when the frontier
+ * 	shrinks again.
+ * 	Visited and frontier sets are bitmaps, one bit per node, and the queue
+ * 	is a single int array holding every layer in turn, so a million node
+ * 	graph costs a few megabytes.
+ */
+public class FloodBFS {
+
+    // Switch to bottom-up once the frontier has more than 1/ALPHA of the
+    // edges still to explore, back to top-down below 1/BETA of the nodes
+    static final int ALPHA = 14;
+    static final int BETA = 24;
+
+
+    /**
+     * run(topology, source)
+     *
+     * @param topology - Topology to search
+     * @param source - index of the node the search starts from
+     * @return Result of the search
+     */
+    public static Result run(Topology topology, int source) {
+        int size = topology.size();
+        if (size == 0) {
+            return new Result(new int[0], 0, 0);
+        }
+        if (source < 0 || source >= size) {
+            throw new IllegalArgumentException("No node " + source + " in a topology of " + size);
+        }
+
+        int[] offsets = topology.offsets();
+        int[] targets = topology.targets();
+
+        long[] visited = new long[(size + 63) >>> 6];
+        long[] frontier = null;
+        int[] queue = new int[size];
+        int[] layer_counts = new int[16];
+        int num_layers = 0;
+
+        queue[0] = source;
+        visited[source >>> 6] |= 1L << source;
+        int head = 0;
+        int tail = 1;
+
+        // Directed edges out of the nodes not visited yet
+        long edges_left = targets.length - degree(offsets, source);
+        boolean bottom_up = false;
+
+        while (head < tail) {
+            int layer_end = tail;
+            if (num_layers == layer_counts.length) {
+                layer_counts = Arrays.copyOf(layer_counts, num_layers * 2);
+            }
+            layer_counts[num_layers++] = layer_end - head;
+
+            long frontier_edges = 0;
+            for (int i = head; i < layer_end; i++) {
+                frontier_edges += degree(offsets, queue[i]);
+            }
+
+            if (!bottom_up && frontier_edges > edges_left / ALPHA) {
+                bottom_up = true;
+            } else if (bottom_up && layer_end - head < size / BETA) {
+                bottom_up = false;
+            }
+
+            if (bottom_up) {
+                // Frontier bitmap of this layer only
+                if (frontier == null) {
+                    frontier = new long[visited.length];
+                } else {
+                    Arrays.fill(frontier, 0L);
+                }
+                for (int i = head; i < layer_end; i++) {
+                    frontier[queue[i] >>> 6] |= 1L << queue[i];
+                }
+
+                for (int word = 0; word < visited.length; word++) {
+                    long unvisited = ~visited[word];
+                    if (word == visited.length - 1 && (size & 63) != 0) {
+                        unvisited &= (1L << size) - 1;
+                    }
+
+                    while (unvisited != 0) {
+                        int v = (word << 6) + Long.numberOfTrailingZeros(unvisited);
+                        unvisited &= unvisited - 1;
+
+                        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                            int u = targets[e];
+                            if ((frontier[u >>> 6] & (1L << u)) != 0) {
+                                visited[word] |= 1L << v;
+                                queue[tail++] = v;
+                                edges_left -= degree(offsets, v);
+                                break;
+                            }
+                        }
+                    }
+                }
+            } else {
+                for (int i = head; i < layer_end; i++) {
+                    int visit = queue[i];
+                    for (int e = offsets[visit]; e < offsets[visit + 1]; e++) {
+                        int neighbor = targets[e];
+                        long bit = 1L << neighbor;
+                        if ((visited[neighbor >>> 6] & bit) == 0) {
+                            visited[neighbor >>> 6] |= bit;
+                            queue[tail++] = neighbor;
+                            edges_left -= degree(offsets, neighbor);
+                        }
+                    }
+                }
+            }
+            head = layer_end;
+        }
+
+        return new Result(Arrays.copyOf(layer_counts, num_layers), tail, size);
+    }
+
+    private static int degree(int[] offsets, int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+
+    /**
+     * Result - what a flood reached, layer by layer. Layer 0 is the source.
+     */
+    public static final class Result {
+
+        private final int[] layer_counts;
+        private final int reachable;
+        private final int size;
+
+        Result(int[] layer_counts, int reachable, int size) {
+            this.layer_counts = layer_counts;
+            this.reachable = reachable;
+            this.size = size;
+        }
+
+        public int numLayers() { return this.layer_counts.length; }
+        public int getLayerCount(int layer) { return this.layer_counts[layer]; }
+        public int[] getLayerCounts() { return this.layer_counts.clone(); }
+
+        // Hops from the source to the farthest node it reaches
+        public int getEccentricity() { return Math.max(0, this.layer_counts.length - 1); }
+
+        public int getReachable() { return this.reachable; }
+        public int getSize() { return this.size; }
+
+        // True if the source reaches every node, so the graph is connected
+        public boolean isConnected() { return this.reachable == this.size; }
+
+
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int layer = 0; layer < layer_counts.length; layer++) {
+                text.append(String.format("Layer: %d --> %d%n", layer + 1, layer_counts[layer]));
+            }
+            text.append(String.format("Reached %d of %d nodes in %d layers%n", reachable, size, layer_counts.length));
+            return text.toString();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.awt.geom.Point2D;
+
+
+/**
+ * KDTree - a dynamic 2-d tree over the Nodes of a Manet, used to answer
+ * 	nearest point queries in O(log N) instead of scanning the graph.
+ *
+ * The tree registers itself as a ManetListener so that it follows every node
+ * 	added to or removed from the network.
+ * 	Insertions descend to a new leaf.
+ * 	Removals only mark the entry as deleted, and the tree is rebuilt
+ * 	balanced once deleted entries outnumber live ones, or once an insertion
+ * 	lands too deep.
+ * 	Entries split on the position their node had when inserted, so a node
+ * 	that moves is deleted and inserted again.
+ */
+public class KDTree implements ManetListener {
+
+    private class Entry {
+        Node node;
+        boolean vertical;   // Splits on x when true, on y otherwise
+        double split;       // Coordinate of the node when it was inserted
+        boolean deleted;
+        Entry left, right;
+
+        Entry(Node node, boolean vertical) {
+            this.node = node;
+            this.vertical = vertical;
+            this.split = key(node);
+        }
+
+        double key(Node other) { return vertical ? other.getX() : other.getY(); }
+        double key(double x, double y) { return vertical ? x : y; }
+    }
+
+    private Entry root;
+    private HashMap<Node, Entry> entries;
+    private int num_deleted;
+
+    // Searching state, kept as fields to avoid passing them down the recursion
+    private double query_x, query_y;
+    private double minimum_distance;
+    private Node closest_node;
+
+
+    public KDTree() {
+        this.entries = new HashMap<Node, Entry>();
+    }
+
+
+    /**
+     * insert(node)
+     * 	Walks down to an empty leaf, alternating the splitting axis per level.
+     */
+    public void insert(Node node) {
+        Entry entry;
+        int depth = 0;
+
+        if (root == null) {
+            entry = root = new Entry(node, true);
+        } else {
+            Entry current = root;
+            while (true) {
+                depth++;
+                if (current.key(node) < current.split) {
+                    if (current.left == null) {
+                        entry = current.left = new Entry(node, !current.vertical);
+                        break;
+                    }
+                    current = current.left;
+                } else {
+                    if (current.right == null) {
+                        entry = current.right = new Entry(node, !current.vertical);
+                        break;
+                    }
+                    current = current.right;
+                }
+            }
+        }
+        entries.put(node, entry);
+
+        // Degenerate insertion orders can unbalance the tree, start over
+        if (depth > 4 * (32 - Integer.numberOfLeadingZeros(entries.size())) + 8) {
+            rebuild();
+        }
+    }
+
+
+    /**
+     * insertAll(nodes)
+     * 	Adds a batch of nodes by rebuilding the tree balanced around them.
+     */
+    public void insertAll(List<Node> nodes) {
+        for (Node node : nodes) {
+            entries.put(node, null);
+        }
+        rebuild();
+    }
+
+
+    /**
+     * delete(node)
+     * 	Lazily removes a node, the entry stays in place to route searches.
+     *
+     * @return true if the node was in the tree
+     */
+    public boolean delete(Node node) {
+        Entry entry = entries.remove(node);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.deleted = true;
+        num_deleted++;
+
+        if (num_deleted > entries.size()) {
+            rebuild();
+        }
+        return true;
+    }
+
+
+    /**
+     * rebuild()
+     * 	Builds a balanced tree from the live nodes, splitting on the median.
+     */
+    public void rebuild() {
+        ArrayList<Node> live = new ArrayList<Node>(entries.keySet());
+        entries.clear();
+        num_deleted = 0;
+        root = build(live, 0, live.size(), true);
+    }
+
+    private static final Comparator<Node> BY_X = new Comparator<Node>() {
+        public int compare(Node a, Node b) { return Double.compare(a.getX(), b.getX()); }
+    };
+    private static final Comparator<Node> BY_Y = new Comparator<Node>() {
+        public int compare(Node a, Node b) { return Double.compare(a.getY(), b.getY()); }
+    };
+
+    private Entry build(ArrayList<Node> nodes, int from, int to, boolean vertical) {
+        if (from >= to) {
+            return null;
+        }
+
+        Collections.sort(nodes.subList(from, to), vertical ? BY_X : BY_Y);
+
+        // Equal keys must end up on the right, as they do on insertion
+        int median = (from + to) / 2;
+        while (median > from && compareKey(nodes.get(median - 1), nodes.get(median), vertical) == 0) {
+            median--;
+        }
+
+        Entry entry = new Entry(nodes.get(median), vertical);
+        entries.put(entry.node, entry);
+        entry.left = build(nodes, from, median, !vertical);
+        entry.right = build(nodes, median + 1, to, !vertical);
+        return entry;
+    }
+
+    private int compareKey(Node a, Node b, boolean vertical) {
+        return vertical ? BY_X.compare(a, b) : BY_Y.compare(a, b);
+    }
+
+
+    /**
+     * nearest(x, y)
+     * 	Finds the node closest to a point, pruning every subtree whose
+     * 	splitting line is further away than the best node found so far.
+     *
+     * @return closest Node, or null if the tree is empty
+     */
+    public Node nearest(double x, double y) {
+        this.query_x = x;
+        this.query_y = y;
+        this.minimum_distance = Double.MAX_VALUE;
+        this.closest_node = null;
+
+        search(root);
+
+        Node result = this.closest_node;
+        this.closest_node = null;
+        return result;
+    }
+
+    private void search(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+
+        if (!entry.deleted) {
+            double distance = Point2D.distance(query_x, query_y, entry.node.getX(), entry.node.getY());
+            if (distance < minimum_distance) {
+                minimum_distance = distance;
+                closest_node = entry.node;
+            }
+        }
+
+        double offset = entry.key(query_x, query_y) - entry.split;
+        Entry near = offset < 0 ? entry.left : entry.right;
+        Entry far = offset < 0 ? entry.right : entry.left;
+
+        search(near);
+        if (Math.abs(offset) <= minimum_distance) {
+            search(far);
+        }
+    }
+
+
+    public int size() { return this.entries.size(); }
+
+
+    // ManetListener Implementation Code
+    public void addNodeCallback(Node node) { insert(node); }
+    public void addNodesCallback(List<Node> nodes) { insertAll(nodes); }
+    public void removeNodeCallback(Node node) { delete(node); }
+}
@@ -1,10 +1,21 @@
 
 
 import java.util.Random;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Stack;
+import java.util.List;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
 
 
 /**
@@ -23,23 +34,87 @@ public abstract class Manet implements Iterable<Node>{
     final double NODE_COMM_RANGE = 1.0;
 
     protected Random prng = null;
-    protected HashSet<Node> graph;
+    protected NodeTable graph;
     protected Stack<Node> remove_stack;
+    // Spatial index over the graph, a cell covers the longest possible link
+    protected CellGrid cells;
+    // Nearest point index, kept up to date as the first listener
+    protected KDTree index;
+
+    // Bumped on every change to the topology
+    protected long version = 0;
+    private Topology snapshot = null;
+
+    // Latest published view, read by other threads without locking
+    private volatile Topology published = null;
+    private boolean publishing = false;
+    private int batch_depth = 0;
+    // Thread that built or last changed the network
+    private volatile Thread writer = Thread.currentThread();
 
     private LinkedList<ManetListener> listeners;
+    // Runs the listeners of one change at once when set
+    private ExecutorService listener_executor = null;
+
+    // Nodes moved by the current moveNodes()
+    private NodeMarks moved = new NodeMarks();
 
 
     public Manet(long prng_seed) {
         this.prng = new Random(prng_seed);
-        this.graph = new HashSet<Node>();
+        this.graph = new NodeTable();
         this.remove_stack = new Stack<Node>();
+        this.cells = new CellGrid(WORLD_LIMIT, NODE_COMM_RANGE * Node.RANGE_LEEWAY);
         this.listeners = new LinkedList<ManetListener>();
+
+        this.index = new KDTree();
+        addListener(this.index);
+    }
+
+
+    // Below this many nodes addNodes() builds links on the calling thread
+    static final int PARALLEL_THRESHOLD = 4096;
+
+    // Team that builds the links of bigger batches, made on first use and
+    // shared by every Manet, which take turns on it
+    private static class LinkTeam {
+        static final ParallelTeam team = new ParallelTeam();
     }
 
 
     // Convenience Layer Functions
     public abstract void generateNode();
 
+
+    /**
+     * fromPoints(xs, ys, manet)
+     * 	Fills an empty network with nodes at known coordinates, linking every
+     * 	pair within communication range (a plain unit disk graph, nothing
+     * 	walks).
+     *
+     * @param xs - x coordinates of the nodes
+     * @param ys - y coordinates of the nodes, same length as xs
+     * @param manet - empty Manet to fill, whose prng keeps driving
+     * 	generateNode() afterwards
+     * @return the same Manet, holding one node per point, in order
+     */
+    public static Manet fromPoints(double[] xs, double[] ys, Manet manet) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Got " + xs.length + " x and " + ys.length + " y coordinates");
+        }
+        if (manet.size() != 0) {
+            throw new IllegalStateException("Points can only be added to an empty Manet");
+        }
+
+        Node[] nodes = new Node[xs.length];
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = new Node(xs[k], ys[k], manet.NODE_COMM_RANGE);
+        }
+
+        manet.addNodes(nodes, null);
+        return manet;
+    }
+
     /**
      * show()
      * 
@@ -52,7 +127,118 @@ public abstract class Manet implements Iterable<Node>{
 
 
     // Accessors and Mutators
-    public HashSet<Node> getGraph() { return this.graph; }
+    public NodeTable getGraph() { return this.graph; }
+    public Node getNode(int id) { return this.graph.get(id); }
+    public int size() { return this.graph.size(); }
+    public CellGrid getCells() { return this.cells; }
+    public long getVersion() { return this.version; }
+
+
+    /**
+     * snapshot()
+     * 	Freezes the current links into an immutable CSR Topology. The
+     * 	snapshot is reused until the next change to the network.
+     *
+     * @return Topology tagged with the current version
+     */
+    public Topology snapshot() {
+        if (this.snapshot == null || this.snapshot.getVersion() != this.version) {
+            this.snapshot = new Topology(this.graph, this.version);
+        }
+        return this.snapshot;
+    }
+
+
+    /**
+     * setPublishing(publishing)
+     * 	Opt-in publication of immutable Topology views for readers on other
+     * 	threads. Once on, the writer builds a view after every change, or
+     * 	once at the end of a batch, after every listener is done with the
+     * 	change, and swaps it in with a single volatile write. Listeners get
+     * 	topologyPublishedCallback() before the view is visible to readers.
+     * 	Readers never lock and the writer never waits on them, a reader just
+     * 	keeps pinging an older version until it takes view() again.
+     * 	Turning it on publishes the current topology right away.
+     */
+    public void setPublishing(boolean publishing) {
+        this.publishing = publishing;
+        if (publishing) {
+            publish();
+        } else {
+            this.published = null;
+        }
+    }
+
+
+    /**
+     * view()
+     * 	Safe to call from any thread.
+     *
+     * @return latest published Topology, or null if publishing is off
+     */
+    public Topology view() {
+        return this.published;
+    }
+
+
+    /**
+     * isWriter()
+     * 	Safe to call from any thread.
+     *
+     * @return true on the thread that built or last changed the network,
+     * 	the only one allowed to touch the live state of its listeners
+     */
+    public boolean isWriter() {
+        return Thread.currentThread() == this.writer;
+    }
+
+
+    /**
+     * beginBatch()
+     * endBatch()
+     * 	Changes made between the two are published as one view, built by
+     * 	the outermost endBatch(). Batches nest.
+     */
+    public void beginBatch() {
+        this.batch_depth++;
+    }
+
+    public void endBatch() {
+        if (this.batch_depth == 0) {
+            throw new IllegalStateException("endBatch() without beginBatch()");
+        }
+        this.batch_depth--;
+        changed();
+    }
+
+
+    // Called once the listeners are done with a change
+    private void changed() {
+        this.writer = Thread.currentThread();
+        if (this.publishing && this.batch_depth == 0) {
+            Topology current = this.published;
+            if (current == null || current.getVersion() != this.version) {
+                publish();
+            }
+        }
+    }
+
+    private void publish() {
+        final Topology view = snapshot();
+        dispatch(listener -> listener.topologyPublishedCallback(view));
+        this.published = view;
+    }
+
+
+    /**
+     * closestNode(x, y)
+     * 	Looks up the node in the graph closest to a point through the KDTree.
+     *
+     * @return closest Node, or null if the graph is empty
+     */
+    public Node closestNode(double x, double y) {
+        return this.index.nearest(x, y);
+    }
 
 
     // Iterable Implementation Code
@@ -75,28 +261,380 @@ public abstract class Manet implements Iterable<Node>{
     }
 
 
+    /**
+     * setListenerExecutor(executor)
+     * 	Opt-in concurrent dispatch: the listeners of one change run in
+     * 	parallel, all but the last on the executor and the last on the
+     * 	calling thread. The change only returns once every listener is done,
+     * 	so the next change never overlaps with them.
+     * 	Listeners then must not write to state they share, they can all
+     * 	read the network. null goes back to calling them in order.
+     *
+     * @param executor - ExecutorService to run the listeners on, or null
+     */
+    public void setListenerExecutor(ExecutorService executor) {
+        this.listener_executor = executor;
+    }
+
+
+    // Calls every listener for one change, see setListenerExecutor()
+    private void dispatch(final Consumer<ManetListener> callback) {
+        if (this.listener_executor == null || this.listeners.size() < 2) {
+            for (ManetListener listener : this.listeners) {
+                callback.accept(listener);
+            }
+            return;
+        }
+
+        ArrayList<Future<?>> pending = new ArrayList<Future<?>>(this.listeners.size() - 1);
+        for (final ManetListener listener : this.listeners.subList(0, this.listeners.size() - 1)) {
+            pending.add(this.listener_executor.submit(() -> callback.accept(listener)));
+        }
+
+        Throwable failure = null;
+        try {
+            callback.accept(this.listeners.getLast());
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+
+        // Wait for all of them even if one failed, nothing may still run
+        // once the change returns
+        boolean interrupted = false;
+        for (Future<?> future : pending) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) { failure = e.getCause(); }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException("A listener failed", failure);
+        }
+    }
+
+
     /**
      * addNode(node)
-     * this function adds a Node to the graph represented by a HashSet<Node>
+     * this function adds a Node to the graph represented by a NodeTable,
+     * 	which gives the node its id
      * 	the node is also added to the helper remove_stack which is used 
-     * 	when removing nodes from the graph
+     * 	when removing nodes from the graph, and to the CellGrid index
      * 
      * addNodeCallback() listener is called for each node added
      * 
      * @param node - Node to be added
      */
     protected void addNode(Node node) {
+        addNode(node, Collections.<Node>emptyList());
+    }
+
+
+    /**
+     * addNode(node, links)
+     * 	Same as addNode(node), but also links the node to the given nodes
+     * 	already in the graph. Neighbors are stored by id, so linking has to
+     * 	wait until the node has been given one. The links are in place before
+     * 	any addNodeCallback() is called.
+     * 
+     * @param node - Node to be added
+     * @param links - Nodes in the graph the new node communicates with
+     */
+    protected void addNode(Node node, List<Node> links) {
         this.graph.add(node);
+        this.cells.add(node);
+
+        for (Node link : links) {
+            node.addNeighbor(link);
+            link.addNeighbor(node);
+        }
+        this.version++;
         
         // This is just for removal
         this.remove_stack.push(node);
 
-        for (ManetListener listener : this.listeners) {
-            listener.addNodeCallback(node);
-        }
+        dispatch(listener -> listener.addNodeCallback(node));
+        changed();
     }
 
     
+    /**
+     * addNodes(nodes, anchors)
+     * 	Bulk version of addNode(node, links). All nodes join the graph first,
+     * 	then the links of every new node are found with a join over the
+     * 	CellGrid, on a ParallelTeam for large batches. Listeners get one
+     * 	addNodesCallback() once every link is in place.
+     *
+     * A new node links to each node that joined before it and is within
+     * 	range, unless it has an anchor: a node that had to walk towards the
+     * 	network only links to the node it walked to, like in generateNode().
+     * 
+     * @param nodes - Nodes to be added, in the order they join
+     * @param anchors - the node each new node walked to, or null for a
+     * 	node that did not walk. May be null if no node walked.
+     */
+    protected void addNodes(final Node[] nodes, final Node[] anchors) {
+        final int first = this.graph.size();
+
+        for (Node node : nodes) {
+            this.graph.add(node);
+            this.cells.add(node);
+            this.remove_stack.push(node);
+        }
+
+        final int[][] links = new int[nodes.length][];
+
+        if (nodes.length < PARALLEL_THRESHOLD) {
+            for (int k = 0; k < nodes.length; k++) {
+                links[k] = joinLinks(nodes[k], anchors, first);
+            }
+        } else {
+            try {
+                synchronized (LinkTeam.team) {
+                    LinkTeam.team.execute(new ParallelRegion() {
+                        public void run() throws Exception {
+                            execute(0, nodes.length - 1, new IntegerForLoop() {
+                                public IntegerSchedule schedule() { return IntegerSchedule.guided(); }
+
+                                public void run(int first_k, int last_k) {
+                                    for (int k = first_k; k <= last_k; k++) {
+                                        links[k] = joinLinks(nodes[k], anchors, first);
+                                    }
+                                }
+                            });
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Could not build the links of the new nodes", e);
+            }
+        }
+
+        // Old nodes only gain new nodes, whose ids come after all of theirs
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k].setNeighbors(links[k]);
+            for (int id : links[k]) {
+                if (id < first) {
+                    this.graph.get(id).addNeighbor(nodes[k]);
+                }
+            }
+        }
+        this.version++;
+
+        List<Node> added = Collections.unmodifiableList(Arrays.asList(nodes));
+        dispatch(listener -> listener.addNodesCallback(added));
+        changed();
+    }
+
+
+    /**
+     * addTopology(nodes, offsets, targets, remove_order)
+     * 	Fills an empty network with nodes whose links are already known, as
+     * 	read back by TopologyFile. Node k gets id k and the neighbors
+     * 	targets[offsets[k]] up to targets[offsets[k + 1] - 1], sorted,
+     * 	without looking at any coordinates. Listeners get one
+     * 	addNodesCallback(), like for addNodes().
+     *
+     * @param nodes - Nodes to be added, in id order
+     * @param offsets - CSR offsets of the links, one more than nodes
+     * @param targets - CSR neighbor ids of the links
+     * @param remove_order - ids of the nodes in remove_stack, bottom first
+     */
+    void addTopology(Node[] nodes, int[] offsets, int[] targets, int[] remove_order) {
+        if (this.graph.size() != 0) {
+            throw new IllegalStateException("A topology can only be loaded into an empty Manet");
+        }
+
+        for (int k = 0; k < nodes.length; k++) {
+            this.graph.add(nodes[k]);
+            this.cells.add(nodes[k]);
+            nodes[k].setNeighbors(Arrays.copyOfRange(targets, offsets[k], offsets[k + 1]));
+        }
+        for (int id : remove_order) {
+            this.remove_stack.push(nodes[id]);
+        }
+        this.version++;
+
+        List<Node> added = Collections.unmodifiableList(Arrays.asList(nodes));
+        dispatch(listener -> listener.addNodesCallback(added));
+        changed();
+    }
+
+
+    /**
+     * joinLinks(node, anchors, first)
+     * 	Finds the ids of the neighbors of one node added by addNodes(). Only
+     * 	reads shared state, so it is safe to run for many nodes in parallel.
+     *
+     * @return sorted ids of the nodes the node links to
+     */
+    private int[] joinLinks(Node node, Node[] anchors, int first) {
+        int[] ids = new int[8];
+        int num_ids = 0;
+
+        Node anchor = anchorOf(node, anchors, first);
+        int column = this.cells.column(node.getX());
+        int row = this.cells.row(node.getY());
+
+        for (int i = column - 1; i <= column + 1; i++) {
+            for (int j = row - 1; j <= row + 1; j++) {
+                for (Node other : this.cells.cell(i, j)) {
+                    if (other == node) {
+                        continue;
+                    }
+
+                    // The one of the two that joined later decides the link
+                    boolean linked;
+                    if (other.getId() < node.getId()) {
+                        linked = (anchor != null) ? other == anchor : other.canCommunicate(node);
+                    } else {
+                        Node other_anchor = anchorOf(other, anchors, first);
+                        linked = (other_anchor != null) ? other_anchor == node : other.canCommunicate(node);
+                    }
+
+                    if (linked) {
+                        if (num_ids == ids.length) {
+                            ids = Arrays.copyOf(ids, ids.length * 2);
+                        }
+                        ids[num_ids++] = other.getId();
+                    }
+                }
+            }
+        }
+
+        ids = Arrays.copyOf(ids, num_ids);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static Node anchorOf(Node node, Node[] anchors, int first) {
+        if (anchors == null || node.getId() < first) {
+            return null;
+        }
+        return anchors[node.getId() - first];
+    }
+
+
+    /**
+     * moveNodes(nodes, xs, ys)
+     * 	Moves nodes to new positions, all at once, and updates the links.
+     * 	A node only changes cell in the CellGrid when it crossed into
+     * 	another one. Only pairs with a moved node are checked: a moved node
+     * 	against its neighbors for links that went down, and against the 3x3
+     * 	cells around it for links that came up.
+     * 	linksChangedCallback() is called once, if any link changed.
+     *
+     * @param nodes - Nodes to move, each listed once
+     * @param xs - new x coordinate of each node
+     * @param ys - new y coordinate of each node
+     */
+    public void moveNodes(Node[] nodes, double[] xs, double[] ys) {
+        this.moved.clear(this.graph.size());
+        int num_moved = 0;
+
+        for (int k = 0; k < nodes.length; k++) {
+            Node node = nodes[k];
+            if (node.getX() == xs[k] && node.getY() == ys[k]) {
+                continue;
+            }
+            this.moved.mark(node.getId());
+            num_moved++;
+
+            boolean crossed = this.cells.column(node.getX()) != this.cells.column(xs[k])
+                    || this.cells.row(node.getY()) != this.cells.row(ys[k]);
+            if (crossed) {
+                this.cells.remove(node);
+            }
+            node.setPosition(xs[k], ys[k]);
+            if (crossed) {
+                this.cells.add(node);
+            }
+        }
+
+        if (num_moved == 0) {
+            return;
+        }
+
+        // Re-inserting most of the nodes costs more than a rebuild
+        if (num_moved > this.graph.size() / 8) {
+            this.index.rebuild();
+        } else {
+            for (Node node : nodes) {
+                if (this.moved.isMarked(node.getId()) && this.index.delete(node)) {
+                    this.index.insert(node);
+                }
+            }
+        }
+
+        ArrayList<Node[]> up = new ArrayList<Node[]>();
+        ArrayList<Node[]> down = new ArrayList<Node[]>();
+
+        for (Node node : nodes) {
+            if (!this.moved.isMarked(node.getId())) {
+                continue;
+            }
+
+            for (int i = 0; i < node.numNeighbors(); i++) {
+                Node neighbor = node.getNeighbor(i);
+                if (checksPair(node, neighbor) && !node.canCommunicate(neighbor)) {
+                    down.add(new Node[] { node, neighbor });
+                }
+            }
+
+            int column = this.cells.column(node.getX());
+            int row = this.cells.row(node.getY());
+            for (int i = column - 1; i <= column + 1; i++) {
+                for (int j = row - 1; j <= row + 1; j++) {
+                    for (Node other : this.cells.cell(i, j)) {
+                        if (other != node && checksPair(node, other)
+                                && !node.hasNeighbor(other) && node.canCommunicate(other)) {
+                            up.add(new Node[] { node, other });
+                        }
+                    }
+                }
+            }
+        }
+
+        if (up.isEmpty() && down.isEmpty()) {
+            return;
+        }
+
+        for (Node[] link : down) {
+            link[0].removeNeighbor(link[1]);
+            link[1].removeNeighbor(link[0]);
+        }
+        for (Node[] link : up) {
+            link[0].addNeighbor(link[1]);
+            link[1].addNeighbor(link[0]);
+        }
+        this.version++;
+
+        List<Node[]> links_up = Collections.unmodifiableList(up);
+        List<Node[]> links_down = Collections.unmodifiableList(down);
+        dispatch(listener -> listener.linksChangedCallback(links_up, links_down));
+        changed();
+    }
+
+    // A pair of moved nodes is checked from the one with the smaller id
+    private boolean checksPair(Node node, Node other) {
+        return !this.moved.isMarked(other.getId()) || node.getId() < other.getId();
+    }
+
+
     /**
      * removeLastNode()
      * This function removes the last node to be added to the graph.  
@@ -115,19 +653,22 @@ public abstract class Manet implements Iterable<Node>{
     /**
      * removeNode(node)
      * This function removes a ndoe from the graph.
-     * 	Node is removed from all Node.getNeighbors()
+     * 	Node is removed from all Node.getNeighbors() and from the CellGrid
+     * 	The last node of the NodeTable takes over the id of the removed node,
+     * 	while the removed node keeps its old, now stale, id.
      * 	removeNodeCallback() is called for each node removed.
      * 
      * @param node - Node to be removed
      */
     protected void removeNode(Node node) {
-        for (Node neighbor : node.getNeighbors()) {
-            neighbor.removeNeighbor(node);
+        for (int i = 0; i < node.numNeighbors(); i++) {
+            node.getNeighbor(i).removeNeighbor(node);
         }
         this.graph.remove(node);
+        this.cells.remove(node);
+        this.version++;
 
-        for (ManetListener listener : this.listeners) {
-            listener.removeNodeCallback(node);
-        }
+        dispatch(listener -> listener.removeNodeCallback(node));
+        changed();
     }
 }
\ No newline at end of file
@@ -1,3 +1,5 @@
+import java.util.List;
+
 
 /**
  * ManetListener
@@ -5,7 +7,12 @@
  * 	during network simulation
  *	
  *	addNodeCallback()
+ *	addNodesCallback()
  *	removeNodeCallback()
+ *	linksChangedCallback()
+ *	linkUpCallback()
+ *	linkDownCallback()
+ *	topologyPublishedCallback()
  * 
  *
  */
@@ -15,9 +22,55 @@ public interface ManetListener {
 	 * @param node
 	 */
     public void addNodeCallback(Node node);
+    /**
+     * Called by Manet when several nodes are added at once, after all of
+     * their links are in place. By default each node is passed on to
+     * addNodeCallback() in the order they joined.
+     * @param nodes
+     */
+    public default void addNodesCallback(List<Node> nodes) {
+        for (Node node : nodes) {
+            addNodeCallback(node);
+        }
+    }
     /**
      * Called by Manet when node is removed
      * @param node
      */
     public void removeNodeCallback(Node node);
+    /**
+     * Called by Manet after nodes moved, once every link is up to date.
+     * Each link is a pair of nodes. By default the links that went down are
+     * passed on to linkDownCallback(), then the ones that came up to
+     * linkUpCallback().
+     * @param up
+     * @param down
+     */
+    public default void linksChangedCallback(List<Node[]> up, List<Node[]> down) {
+        for (Node[] link : down) {
+            linkDownCallback(link[0], link[1]);
+        }
+        for (Node[] link : up) {
+            linkUpCallback(link[0], link[1]);
+        }
+    }
+    /**
+     * Called for a new link between two nodes that moved into range
+     * @param a
+     * @param b
+     */
+    public default void linkUpCallback(Node a, Node b) {}
+    /**
+     * Called for a link between two nodes that moved out of range
+     * @param a
+     * @param b
+     */
+    public default void linkDownCallback(Node a, Node b) {}
+    /**
+     * Called by Manet on the writing thread when it publishes a view, see
+     * Manet.setPublishing(). Readers cannot see the view yet, so state
+     * attached to it now is seen together with it.
+     * @param view
+     */
+    public default void topologyPublishedCallback(Topology view) {}
 }
\ No newline at end of file
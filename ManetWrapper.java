@@ -1,8 +1,7 @@
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Iterator;
 import java.util.Random;
-import java.awt.geom.Point2D;
 
 
 /**
@@ -19,6 +18,17 @@ public abstract class ManetWrapper implements ManetListener{
     private Random selector;
     protected Manet network;
 
+    // Told about every control packet sent, null unless a mode needs it
+    protected PacketListener packet_listener;
+
+    // Packets, loads, path lengths and routine times of the protocol
+    protected ProtocolMetrics metrics;
+
+    // Per-node packet counters of the protocol, see counter()
+    private ArrayList<NodeCounter> counters = new ArrayList<NodeCounter>();
+    // Counters of the trial each thread runs, see beginTrial()
+    private final ThreadLocal<Trial> trials = new ThreadLocal<Trial>();
+
 
     /**
      * Constructor ManetWrapper(network, selector_seed)
@@ -28,6 +38,7 @@ public abstract class ManetWrapper implements ManetListener{
      */
     public ManetWrapper(Manet network, long selector_seed) {
         this.network = network;
+        this.metrics = new ProtocolMetrics(network.getGraph());
         this.network.addListener(this);
         selector = new Random(selector_seed);
     }
@@ -37,6 +48,8 @@ public abstract class ManetWrapper implements ManetListener{
      * getRandomNode()
      * 	Generates a random node in the graph that is guaranteed to be 
      * 	connected to another node already in the graph.
+     * 	The node closest to a random point is found through the KDTree
+     * 	index of the Manet.
      *  
      * @return
      */
@@ -46,19 +59,7 @@ public abstract class ManetWrapper implements ManetListener{
         x = (x * network.WORLD_LIMIT) - (network.WORLD_LIMIT / 2);
         y = (y * network.WORLD_LIMIT) - (network.WORLD_LIMIT / 2);
 
-        double minimum_distance = Double.MAX_VALUE;
-        Node closest_node = null;
-
-        for (Node node : network.getGraph()) {
-            double distance = Point2D.distance(x, y, node.getX(), node.getY());
-            
-            if (distance < minimum_distance) {
-                minimum_distance = distance;
-                closest_node = node;
-            }
-        }
-
-        return closest_node;
+        return network.closestNode(x, y);
     }
 
 
@@ -66,9 +67,10 @@ public abstract class ManetWrapper implements ManetListener{
      * floodBFS()
      * 	Helper function, used to test that each Node in the network 
      * 	is linked to another node. Also provides how many layers the network
-     * 	contains.
+     * 	contains. Runs flood() from a random node over a snapshot.
      * 
      * @return Integer - number of layers in the BFS
+     * @throws IllegalStateException if the network is partitioned
      */
     public int floodBFS() { return floodBFS(false); }
     public int floodBFS(boolean verbose) {
@@ -76,80 +78,316 @@ public abstract class ManetWrapper implements ManetListener{
         if (network.getGraph().isEmpty() ) {
             return 0;
         }
-        
-        Node closest_node = getRandomNode();
+        return floodBFS(network.snapshot(), getRandomNode(), verbose);
+    }
+
+
+    /**
+     * floodBFS(topology, source)
+     * 	Same check as floodBFS(), but run over a given snapshot from a
+     * 	given source.
+     *
+     * @return Integer - number of layers in the BFS
+     * @throws IllegalStateException if the source does not reach every node
+     */
+    public int floodBFS(Topology topology, Node source) { return floodBFS(topology, source, false); }
+    public int floodBFS(Topology topology, Node source, boolean verbose) {
+        FloodBFS.Result result = flood(topology, source);
 
-        //Internal variables used in BFS
-        LinkedList<Node> queue = new LinkedList<Node>();
-        HashSet<Node> marked = new HashSet<Node>();
-        HashSet<Node> current_layer = new HashSet<Node>();
-        HashSet<Node> next_layer = new HashSet<Node>();
-        int num_layers = 1;
+        if(verbose) { System.out.print(result); }
 
-        if(verbose) {
-            System.out.println("Layer: " + num_layers + " --> " + current_layer.size());
+        // Sanity check that the BFS covers all nodes
+        if (!result.isConnected()) {
+            throw new IllegalStateException("Flood BFS reached " + result.getReachable()
+                    + " of the " + result.getSize() + " nodes of the graph");
         }
+        return result.numLayers();
+    }
+
 
-        //Pick first node
-        queue.offer(closest_node);
-        marked.add(closest_node);
+    /**
+     * flood(topology, source)
+     * 	Floods the snapshot from a node with FloodBFS. Unlike floodBFS() a
+     * 	partitioned graph is just a result, see FloodBFS.Result.isConnected().
+     *
+     * @return FloodBFS.Result - nodes per layer, eccentricity and nodes reached
+     */
+    public FloodBFS.Result flood(Topology topology, Node source) {
+        return FloodBFS.run(topology, topology.indexOf(source));
+    }
 
-        current_layer.add(closest_node);
 
-        //Iterate through all nodes in the network
-        while (!queue.isEmpty()) {
-            Node visit = queue.poll();
+    /**
+     * stretch(sources, destinations)
+     * 	How much longer the routes ping() takes are than the shortest paths,
+     * 	for each pair sources[k], destinations[k] of the network as it is.
+     * 	Shortest hops come from MultiSourceBFS over a snapshot. The pings
+     * 	run as a trial, so the live metrics are left alone, but the protocol
+     * 	keeps any route state it builds for them.
+     */
+    public MultiSourceBFS.Stretch stretch(Node[] sources, Node[] destinations) {
+        Topology topology = network.snapshot();
+        int[] source_indexes = new int[sources.length];
+        int[] destination_indexes = new int[destinations.length];
+        for (int k = 0; k < sources.length; k++) {
+            source_indexes[k] = topology.indexOf(sources[k]);
+            destination_indexes[k] = topology.indexOf(destinations[k]);
+        }
+        int[] shortest = MultiSourceBFS.distances(topology, source_indexes, destination_indexes);
 
-            boolean add_to_next = false;
-            if (current_layer.contains(visit)) {
-                current_layer.remove(visit);
-                add_to_next = true;
+        MultiSourceBFS.Stretch stretch = new MultiSourceBFS.Stretch();
+        beginTrial();
+        try {
+            for (int k = 0; k < sources.length; k++) {
+                if (shortest[k] <= 0) {
+                    continue;
+                }
+                // The path starts with null and the source, and leaves out the destination
+                LinkedList<Node> path = ping(sources[k], destinations[k]);
+                stretch.add((path == null || path.isEmpty()) ? -1 : path.size() - 1, shortest[k]);
             }
+        } finally {
+            endTrial();
+        }
+        return stretch;
+    }
 
-            for (Node neighbor : visit.getNeighbors()) {
-                if (!marked.contains(neighbor)) {
-                    marked.add(neighbor);
-                    queue.offer(neighbor);
 
-                    if(add_to_next) {
-                        next_layer.add(neighbor);
-                    }
+    /**
+     * setPacketListener(listener)
+     * 	Reports every control packet the protocol sends to the listener,
+     * 	or to nobody when it is null.
+     */
+    public void setPacketListener(PacketListener listener) {
+        this.packet_listener = listener;
+    }
+
+    // A trial only counts, the packet listener is not told about it
+    protected void packetSent(PacketType type, Node node) {
+        metrics().sent(type, 1);
+        if (this.packet_listener != null && trial() == null) {
+            this.packet_listener.packetSent(type, node);
+        }
+    }
+
+    // Same for a packet to one neighbor, answering the last one from cause
+    protected void packetSent(PacketType type, Node node, Node to, Node cause) {
+        metrics().sent(type, 1);
+        if (this.packet_listener != null && trial() == null) {
+            this.packet_listener.packetSent(type, node, to, cause);
+        }
+    }
+
+    protected void packetReceived(PacketType type, Node node, int amount) {
+        metrics().received(type, node, amount);
+    }
+
+
+    /**
+     * recordPath(path, destination)
+     * 	Counts the hops of a ping in the metrics, each one a DATA packet
+     * 	sent by a node of the path and received by the next one.
+     *
+     * @param path - path as returned by ping(), null or empty if unreachable
+     * @return the same path
+     */
+    protected LinkedList<Node> recordPath(LinkedList<Node> path, Node destination) {
+        ProtocolMetrics metrics = metrics();
+        if (path == null || path.isEmpty()) {
+            metrics.path(-1);
+            return path;
+        }
+
+        // The path starts with null and the source, and leaves out the destination
+        int hops = path.size() - 1;
+        metrics.path(hops);
+        if (hops > 0) {
+            metrics.sent(PacketType.DATA, hops);
+            int index = 0;
+            for (Node node : path) {
+                if (index++ > 1) {
+                    metrics.received(PacketType.DATA, node, 1);
                 }
             }
+            metrics.received(PacketType.DATA, destination, 1);
+        }
+        return path;
+    }
 
-            if (current_layer.isEmpty()) {
-                current_layer = next_layer;
-                next_layer = new HashSet<Node>();
 
-                if (!current_layer.isEmpty()) {
-                    num_layers ++;
-                    if(verbose) {
-                        System.out.println("Layer: " + num_layers + " --> " + current_layer.size());
-                    }
-                }
+    /**
+     * getMetrics()
+     * 	The live metrics of the protocol, or of the trial running on this
+     * 	thread. snapshot() them to keep a copy.
+     * 	clearMetrics() clears them along with the protocol's own counters.
+     */
+    public ProtocolMetrics getMetrics() { return metrics(); }
+
+    protected ProtocolMetrics metrics() {
+        Trial trial = trial();
+        return (trial != null) ? trial.metrics : this.metrics;
+    }
+
+
+    /**
+     * counter()
+     * 	Registers a per-node packet counter of the protocol, once, when the
+     * 	protocol is built. Every trial gets a counter of its own in its
+     * 	place, so counting goes through count() and reading through total().
+     *
+     * @return the live counter, for the protocol to move() and clear()
+     */
+    protected NodeCounter counter() {
+        NodeCounter counter = new NodeCounter(this.network.getGraph());
+        this.counters.add(counter);
+        return counter;
+    }
+
+    protected void count(NodeCounter counter, Node node, int amount) {
+        counter(counter).add(node, amount);
+    }
+
+    protected int total(NodeCounter counter) {
+        return counter(counter).getTotal();
+    }
+
+    // The counter of the trial running on this thread standing for a live one
+    private NodeCounter counter(NodeCounter counter) {
+        Trial trial = trial();
+        return (trial != null) ? trial.counters[this.counters.indexOf(counter)] : counter;
+    }
+
+
+    /**
+     * clearCounters()
+     * 	Zeroes the metrics and every registered counter, those of the trial
+     * 	running on this thread if there is one.
+     */
+    protected void clearCounters() {
+        Trial trial = trial();
+        if (trial != null) {
+            trial.clear();
+            return;
+        }
+        this.metrics.clear();
+        for (NodeCounter counter : this.counters) {
+            counter.clear();
+        }
+    }
+
+
+    /**
+     * beginTrial()
+     * 	Until endTrial(), every packet the calling thread counts goes to a
+     * 	context of its own, starting from zero: getMetrics(),
+     * 	getTotalPacketsRecieved() and clearMetrics() all work on it. Trials
+     * 	on different threads can then ping at once, over one Topology that
+     * 	does not change under them, with the ping(topology, ...) variant.
+     * 	The context of a thread is reused by its next trial.
+     */
+    public void beginTrial() {
+        Trial trial = this.trials.get();
+        if (trial == null) {
+            trial = new Trial();
+            this.trials.set(trial);
+        }
+        trial.clear();
+        trial.bind(null);
+        trial.open = true;
+    }
+
+    /**
+     * endTrial()
+     * 	Goes back to counting into the live metrics.
+     *
+     * @return copy of the metrics of the trial, to reduce with the others
+     */
+    public ProtocolMetrics.Snapshot endTrial() {
+        Trial trial = trial();
+        if (trial == null) {
+            throw new IllegalStateException("endTrial() without beginTrial()");
+        }
+        trial.open = false;
+        return trial.metrics.snapshot();
+    }
+
+    private Trial trial() {
+        Trial trial = this.trials.get();
+        return (trial != null && trial.open) ? trial : null;
+    }
+
+
+    // The counters one thread counts a trial into, by node id, or by the
+    // index of the Topology it pings over
+    private final class Trial {
+        final ProtocolMetrics metrics;
+        final NodeCounter[] counters;
+        boolean open;
+
+        Trial() {
+            this.metrics = ManetWrapper.this.metrics.context();
+            this.counters = new NodeCounter[ManetWrapper.this.counters.size()];
+            for (int i = 0; i < this.counters.length; i++) {
+                this.counters[i] = ManetWrapper.this.counters.get(i).context();
             }
         }
 
-        if(verbose) { System.out.println("Number of BFS Layers: " + num_layers); }
+        void bind(Topology topology) {
+            this.metrics.bind(topology);
+            for (NodeCounter counter : this.counters) {
+                counter.bind(topology);
+            }
+        }
 
-        // Sanity check that the BFS covers all nodes
-        if( marked.size() != network.getGraph().size() ) {
-            System.err.println("Logical Error in Flood BFS: Incorrect Visited.");
-            System.err.println("  The number of nodes visited in the BFS is not the size of the graph.");
-            System.exit(1);
+        void clear() {
+            this.metrics.clear();
+            for (NodeCounter counter : this.counters) {
+                counter.clear();
+            }
         }
-        return num_layers;
     }
 
-    
+
+    /**
+     * ping(topology, source, destination)
+     * 	Routes a ping over a snapshot only, without touching the route
+     * 	state the protocol may keep. Over a view() it can run on another
+     * 	thread while the network changes, inside a trial of that thread,
+     * 	which counts by the indexes of the snapshot.
+     * 	Outside a trial only the thread that changes the network may ping,
+     * 	and it counts into the live metrics like ping(source, destination).
+     *
+     * @throws IllegalStateException outside a trial on any other thread
+     */
+    public LinkedList<Node> ping(Topology topology, Node source, Node destination) {
+        Trial trial = trial();
+        if (trial != null) {
+            trial.bind(topology);
+        } else if (!this.network.isWriter()) {
+            throw new IllegalStateException("ping(topology, ...) off the writer thread needs beginTrial()");
+        }
+        return pingTopology(topology, source, destination);
+    }
+
+
+    /**
+     * view()
+     * 	The latest Topology the network published, see Manet.setPublishing().
+     * 	Safe to call from any thread.
+     */
+    public Topology view() { return this.network.view(); }
+
     public void show() { this.network.show(); }
     public Iterator<Node> iterator() { return this.network.iterator(); }
 
     /*
      * Abstract functions that are all implemented by protocol 
      * 	specific wrappers.
+     * pingTopology() is the protocol's side of ping(topology, ...), only
+     * 	reading the snapshot and what is attached to it.
      */
     public abstract LinkedList<Node> ping(Node source, Node destination);
+    protected abstract LinkedList<Node> pingTopology(Topology topology, Node source, Node destination);
     public abstract void addNodeCallback(Node node);
     public abstract void removeNodeCallback(Node node);
     public abstract void clearMetrics();
@@ -0,0 +1,114 @@
+import java.util.HashMap;
+import java.util.Random;
+
+
+/**
+ * Mobility - moves the nodes of a Manet in fixed time steps.
+ *
+ * Each tick, every node is advanced by the model of a subclass, then the
+ * 	Manet moves them all at once, which updates the links incrementally
+ * 	and reports them to its listeners.
+ *
+ * The state of a node in the model is created the first time the node
+ * 	moves, and dropped when it leaves the network. Nodes stay inside the
+ * 	world of the Manet.
+ */
+public abstract class Mobility implements ManetListener {
+
+    protected Manet network;
+    protected Random prng;
+    protected double min_speed;
+    protected double max_speed;
+    protected double pause_time;
+
+    private HashMap<Node, double[]> states;
+
+
+    /**
+     * Constructor Mobility(network, prng_seed, min_speed, max_speed, pause_time)
+     *
+     * @param network - Manet whose nodes move
+     * @param prng_seed - seed for the choices of the model
+     * @param min_speed - lowest speed of a node, in distance per time unit
+     * @param max_speed - highest speed of a node
+     * @param pause_time - time a node waits once it reached its goal
+     */
+    public Mobility(Manet network, long prng_seed, double min_speed, double max_speed, double pause_time) {
+        this.network = network;
+        this.prng = new Random(prng_seed);
+        this.min_speed = min_speed;
+        this.max_speed = max_speed;
+        this.pause_time = pause_time;
+        this.states = new HashMap<Node, double[]>();
+
+        network.addListener(this);
+    }
+
+
+    /**
+     * tick(dt)
+     * 	Advances every node of the network by dt time units.
+     */
+    public void tick(double dt) {
+        NodeTable graph = this.network.getGraph();
+        int size = graph.size();
+
+        Node[] nodes = new Node[size];
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        double[] position = new double[2];
+
+        for (int id = 0; id < size; id++) {
+            Node node = graph.get(id);
+            double[] state = this.states.get(node);
+            if (state == null) {
+                state = start(node);
+                this.states.put(node, state);
+            }
+
+            position[0] = node.getX();
+            position[1] = node.getY();
+            advance(state, position, dt);
+
+            nodes[id] = node;
+            xs[id] = position[0];
+            ys[id] = position[1];
+        }
+
+        this.network.moveNodes(nodes, xs, ys);
+    }
+
+
+    /**
+     * start(node)
+     *
+     * @return the state of a node that did not move yet
+     */
+    protected abstract double[] start(Node node);
+
+    /**
+     * advance(state, position, dt)
+     * 	Moves a node for dt time units, updating its state and position.
+     */
+    protected abstract void advance(double[] state, double[] position, double dt);
+
+
+    protected double randomSpeed() {
+        return this.min_speed + this.prng.nextDouble() * (this.max_speed - this.min_speed);
+    }
+
+    protected double randomCoordinate() {
+        return (this.prng.nextDouble() * this.network.WORLD_LIMIT) - (this.network.WORLD_LIMIT / 2);
+    }
+
+    // Keeps a coordinate inside the world
+    protected double clamp(double coordinate) {
+        double limit = this.network.WORLD_LIMIT / 2;
+        return Math.max(-limit, Math.min(limit, coordinate));
+    }
+
+
+    // ManetListener Implementation Code
+    public void addNodeCallback(Node node) { }
+    public void removeNodeCallback(Node node) { this.states.remove(node); }
+}
\ No newline at end of file
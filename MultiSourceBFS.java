@@ -0,0 +1,374 @@
+import java.util.Arrays;
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+
+
+/**
+ * MultiSourceBFS - hop distances from many sources at once over a
+ * 	Topology, for diameters, mean path lengths and route stretch.
+ *
+ * Sources go in batches of 64, one bit of a long per source (MS-BFS).
+ * 	Each node holds the bits of the sources that have reached it and of
+ * 	the ones that reached it in the last level, so a single pass over the
+ * 	links advances all 64 searches by one level. Batches are independent
+ * 	and run on a ParallelTeam shared by every search.
+ * 	All pairs costs N / 64 batches of one pass over the links per level,
+ * 	next to N^3 for Floyd's algorithm.
+ */
+public class MultiSourceBFS {
+
+    static final int BATCH = 64;
+
+
+    /**
+     * Visitor - told about the sources of a batch that reach a node first
+     * 	at some level. Bit k of sources stands for source k of the batch.
+     */
+    interface Visitor {
+        public void reached(int node, long sources, int level);
+    }
+
+
+    /**
+     * stats(topology)
+     * 	Same as below, from every node.
+     */
+    public static Stats stats(Topology topology) {
+        int[] sources = new int[topology.size()];
+        for (int v = 0; v < sources.length; v++) {
+            sources[v] = v;
+        }
+        return stats(topology, sources);
+    }
+
+
+    /**
+     * stats(topology, sources)
+     * 	Hop distances from each source to every node, summed up.
+     * 	With every node as a source, the diameter is that of the graph,
+     * 	with a sample it is a lower bound.
+     *
+     * @param sources - indexes of the nodes to search from
+     * @return Stats over the pairs of a source and a node it reaches
+     */
+    public static Stats stats(final Topology topology, final int[] sources) {
+        int num_batches = (sources.length + BATCH - 1) / BATCH;
+        final long[] pairs = new long[num_batches];
+        final long[] hops = new long[num_batches];
+        final int[] diameters = new int[num_batches];
+
+        forEachBatch(topology, sources, new BatchVisitor() {
+            public Visitor visitor(final int batch) {
+                return new Visitor() {
+                    public void reached(int node, long reached, int level) {
+                        int count = Long.bitCount(reached);
+                        if (level > 0) {
+                            pairs[batch] += count;
+                            hops[batch] += (long) level * count;
+                            diameters[batch] = Math.max(diameters[batch], level);
+                        }
+                    }
+                };
+            }
+        });
+
+        // Reduced in batch order, whatever thread ran which batch
+        long total_pairs = 0;
+        long total_hops = 0;
+        int diameter = 0;
+        for (int batch = 0; batch < num_batches; batch++) {
+            total_pairs += pairs[batch];
+            total_hops += hops[batch];
+            diameter = Math.max(diameter, diameters[batch]);
+        }
+        return new Stats(sources.length, topology.size(), total_pairs, total_hops, diameter);
+    }
+
+
+    /**
+     * distances(topology, sources, destinations)
+     * 	Hop distance of each pair sources[k], destinations[k]. Pairs from
+     * 	the same source share its search.
+     *
+     * @return distance of each pair, -1 if the destination is not reached
+     */
+    public static int[] distances(final Topology topology, int[] sources, final int[] destinations) {
+        if (sources.length != destinations.length) {
+            throw new IllegalArgumentException("Got " + sources.length + " sources and " + destinations.length + " destinations");
+        }
+
+        // Pairs grouped by source, the searches only run for distinct ones
+        final int[] order = pairsBySource(sources);
+        final int[] source_of = new int[order.length];
+        final int[] first_pair = new int[order.length + 1];
+        int[] distinct = new int[order.length];
+        int num_distinct = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i == 0 || sources[order[i]] != sources[order[i - 1]]) {
+                first_pair[num_distinct] = i;
+                distinct[num_distinct++] = sources[order[i]];
+            }
+            source_of[i] = num_distinct - 1;
+        }
+        first_pair[num_distinct] = order.length;
+        final int[] searched = Arrays.copyOf(distinct, num_distinct);
+
+        final int[] result = new int[order.length];
+        Arrays.fill(result, -1);
+
+        forEachBatch(topology, searched, new BatchVisitor() {
+            public Visitor visitor(final int batch) {
+                // Pairs of the batch by destination, looked up as nodes are reached
+                int first = first_pair[batch * BATCH];
+                int last = first_pair[Math.min((batch + 1) * BATCH, searched.length)];
+                final long[] by_destination = new long[last - first];
+                for (int i = first; i < last; i++) {
+                    by_destination[i - first] = ((long) destinations[order[i]] << 32) | i;
+                }
+                Arrays.sort(by_destination);
+
+                return new Visitor() {
+                    public void reached(int node, long reached, int level) {
+                        int j = Arrays.binarySearch(by_destination, (long) node << 32);
+                        for (j = (j < 0) ? -j - 1 : j; j < by_destination.length; j++) {
+                            if ((int) (by_destination[j] >>> 32) != node) {
+                                break;
+                            }
+                            int i = (int) by_destination[j];
+                            if ((reached & (1L << (source_of[i] - batch * BATCH))) != 0) {
+                                result[order[i]] = level;
+                            }
+                        }
+                    }
+                };
+            }
+        });
+        return result;
+    }
+
+    // Indexes of the pairs, sorted by source
+    private static int[] pairsBySource(int[] sources) {
+        long[] keyed = new long[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            keyed[i] = ((long) sources[i] << 32) | i;
+        }
+        Arrays.sort(keyed);
+
+        int[] order = new int[sources.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (int) keyed[i];
+        }
+        return order;
+    }
+
+
+    // Gives the visitor of each batch, called once per batch
+    private interface BatchVisitor {
+        public Visitor visitor(int batch);
+    }
+
+    // Team the batches run on, made on first use and shared by every search,
+    // which take turns on it
+    private static class SearchTeam {
+        static final ParallelTeam team = new ParallelTeam();
+    }
+
+    // Runs every batch, on the ParallelTeam when there is more than one
+    private static void forEachBatch(final Topology topology, final int[] sources, final BatchVisitor visitors) {
+        final int num_batches = (sources.length + BATCH - 1) / BATCH;
+        if (num_batches == 0) {
+            return;
+        }
+
+        if (num_batches == 1) {
+            search(topology, sources, 0, visitors.visitor(0), new long[3][topology.size()]);
+            return;
+        }
+
+        try {
+            synchronized (SearchTeam.team) {
+                SearchTeam.team.execute(new ParallelRegion() {
+                    public void run() throws Exception {
+                        execute(0, num_batches - 1, new IntegerForLoop() {
+                            // Bitsets of this thread, reused by each of its batches
+                            long[][] bits = new long[3][topology.size()];
+
+                            public IntegerSchedule schedule() { return IntegerSchedule.dynamic(1); }
+
+                            public void run(int first, int last) {
+                                for (int batch = first; batch <= last; batch++) {
+                                    search(topology, sources, batch, visitors.visitor(batch), bits);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Could not run the searches", e);
+        }
+    }
+
+
+    /**
+     * search(topology, sources, batch, visitor, bits)
+     * 	Runs the searches from the sources of one batch, level by level,
+     * 	until none of them reaches a new node. Sources are reached at
+     * 	level 0.
+     *
+     * @param bits - three arrays of a long per node to work in
+     */
+    static void search(Topology topology, int[] sources, int batch, Visitor visitor, long[][] bits) {
+        int[] offsets = topology.offsets();
+        int[] targets = topology.targets();
+        int size = topology.size();
+
+        long[] seen = bits[0];
+        long[] visit = bits[1];
+        long[] next = bits[2];
+        Arrays.fill(seen, 0L);
+        Arrays.fill(visit, 0L);
+
+        int first = batch * BATCH;
+        int count = Math.min(BATCH, sources.length - first);
+        for (int k = 0; k < count; k++) {
+            int source = sources[first + k];
+            seen[source] |= 1L << k;
+            visit[source] |= 1L << k;
+        }
+        // Once per node, for the first source of the batch on it
+        for (int k = 0; k < count; k++) {
+            int source = sources[first + k];
+            if (Long.numberOfTrailingZeros(visit[source]) == k) {
+                visitor.reached(source, visit[source], 0);
+            }
+        }
+
+        int level = 0;
+        boolean active = true;
+        while (active) {
+            level++;
+            active = false;
+            Arrays.fill(next, 0L);
+
+            // Every node passes on the searches that reached it last level
+            for (int v = 0; v < size; v++) {
+                long reached = visit[v];
+                if (reached == 0) {
+                    continue;
+                }
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    next[targets[e]] |= reached;
+                }
+            }
+
+            // Only the searches that had not been to a node count there
+            for (int v = 0; v < size; v++) {
+                long fresh = next[v] & ~seen[v];
+                next[v] = fresh;
+                if (fresh != 0) {
+                    seen[v] |= fresh;
+                    visitor.reached(v, fresh, level);
+                    active = true;
+                }
+            }
+
+            long[] swap = visit;
+            visit = next;
+            next = swap;
+        }
+    }
+
+
+    /**
+     * Stats - hop distances summed up over the pairs of a source and
+     * 	another node it reaches.
+     */
+    public static final class Stats {
+
+        private final int num_sources;
+        private final int size;
+        private final long pairs;
+        private final long hops;
+        private final int diameter;
+
+        Stats(int num_sources, int size, long pairs, long hops, int diameter) {
+            this.num_sources = num_sources;
+            this.size = size;
+            this.pairs = pairs;
+            this.hops = hops;
+            this.diameter = diameter;
+        }
+
+        public int getSources() { return this.num_sources; }
+        public long getPairs() { return this.pairs; }
+        public int getDiameter() { return this.diameter; }
+
+        // Pairs of a source and another node it does not reach
+        public long getUnreachable() { return (long) this.num_sources * (this.size - 1) - this.pairs; }
+
+        public double getMeanPathLength() {
+            return this.pairs == 0 ? 0.0 : (double) this.hops / this.pairs;
+        }
+
+        public String toString() {
+            return String.format("Sources: %d   Pairs: %d   Unreachable: %d   Diameter: %d   Mean hops: %.3f",
+                    num_sources, pairs, getUnreachable(), diameter, getMeanPathLength());
+        }
+    }
+
+
+    /**
+     * Stretch - how much longer the routes of a protocol are than the
+     * 	shortest paths, route hops over shortest hops per ping.
+     */
+    public static final class Stretch {
+
+        private long pings;
+        private long failed;
+        private double total;
+        private double max;
+        private long route_hops;
+        private long shortest_hops;
+
+        /**
+         * add(hops, shortest)
+         * 	Counts one ping, -1 hops for one the protocol could not route.
+         * 	Pings from a node to itself are left out.
+         */
+        public void add(int hops, int shortest) {
+            if (shortest <= 0) {
+                return;
+            }
+            if (hops < 0) {
+                failed++;
+                return;
+            }
+            double stretch = (double) hops / shortest;
+            pings++;
+            total += stretch;
+            max = Math.max(max, stretch);
+            route_hops += hops;
+            shortest_hops += shortest;
+        }
+
+        public long getPings() { return this.pings; }
+        public long getFailed() { return this.failed; }
+        public double getMax() { return this.max; }
+
+        // Mean of the stretch of each ping
+        public double getMean() { return this.pings == 0 ? 0.0 : this.total / this.pings; }
+
+        // Hops of all routes over hops of all shortest paths
+        public double getOverall() {
+            return this.shortest_hops == 0 ? 0.0 : (double) this.route_hops / this.shortest_hops;
+        }
+
+        public String toString() {
+            return String.format("Pings: %d   Failed: %d   Mean stretch: %.3f   Overall: %.3f   Max: %.3f",
+                    pings, failed, getMean(), getOverall(), max);
+        }
+    }
+}
\ No newline at end of file
@@ -1,4 +1,8 @@
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.awt.geom.Point2D;
 
 /*
@@ -8,8 +12,19 @@ import java.awt.geom.Point2D;
  */
 public class Node {
 
+    // A tiny bit of leeway on the range due to the inaccuracies of precision
+    public static final double RANGE_LEEWAY = 1.01;
+
     private double x, y, comm_range;
-    private HashSet<Node> neighbors = null;
+    // Ids of the neighbors, sorted, only the first num_neighbors are used
+    private int[] neighbors = null;
+    private int num_neighbors = 0;
+    // Dense index given by the NodeTable of the Manet, -1 until added
+    private int id = -1;
+    // Table the ids of this node and its neighbors belong to
+    private NodeTable table = null;
+    // Fixed at creation so hashed collections iterate the same every run
+    private final int hash;
 
     /**
      * Node(x, y, comm_range)
@@ -23,17 +38,28 @@ public class Node {
         this.x = x;
         this.y = y;
         this.comm_range = comm_range;
-        this.neighbors = new HashSet<Node>();
+        this.neighbors = new int[4];
+        this.hash = 31 * Double.hashCode(x) + Double.hashCode(y);
     }
 
 
     /**
      * Adds a neighbor to the set of neighbors contained in this node.
+     * Both nodes must already have been added to the same Manet.
      *
      * @return true if the neighbor was sucecssfully added.
      **/
     public boolean addNeighbor(Node neighbor) {
-        return this.neighbors.add(neighbor);
+        if (neighbor.table != this.table || neighbor.id < 0) {
+            throw new IllegalStateException("Neighbor " + neighbor + " is not in the same Manet as " + this);
+        }
+
+        int index = Arrays.binarySearch(this.neighbors, 0, this.num_neighbors, neighbor.id);
+        if (index >= 0) {
+            return false;
+        }
+        insertId(-(index + 1), neighbor.id);
+        return true;
     }
 
 
@@ -43,7 +69,72 @@ public class Node {
      * @return true if the neighbor was successfully removed.
      **/
     public boolean removeNeighbor(Node neighbor) {
-        return this.neighbors.remove(neighbor);
+        if (!hasNeighbor(neighbor)) {
+            return false;
+        }
+        removeId(Arrays.binarySearch(this.neighbors, 0, this.num_neighbors, neighbor.id));
+        return true;
+    }
+
+
+    /**
+     * @return true if the other node is a neighbor of this node.
+     **/
+    public boolean hasNeighbor(Node other) {
+        if (other.table != this.table || other.id < 0) {
+            return false;
+        }
+        return Arrays.binarySearch(this.neighbors, 0, this.num_neighbors, other.id) >= 0;
+    }
+
+
+    /**
+     * Gets a neighbor by position, 0 up to numNeighbors() - 1, so hot loops
+     * can walk the neighbors without allocating an iterator.
+     **/
+    public Node getNeighbor(int index) {
+        return this.table.get(this.neighbors[index]);
+    }
+
+    public int getNeighborId(int index) {
+        return this.neighbors[index];
+    }
+
+
+    /**
+     * Replaces all neighbors at once with already sorted ids, used by
+     * Manet.addNodes() when it builds links in bulk.
+     **/
+    void setNeighbors(int[] sorted_ids) {
+        this.neighbors = (sorted_ids.length > 0) ? sorted_ids : new int[4];
+        this.num_neighbors = sorted_ids.length;
+    }
+
+
+    /**
+     * Called by NodeTable when the node with id from is moved to id to.
+     **/
+    void renumberNeighbor(int from, int to) {
+        int index = Arrays.binarySearch(this.neighbors, 0, this.num_neighbors, from);
+        if (index < 0) {
+            return;
+        }
+        removeId(index);
+        insertId(-(Arrays.binarySearch(this.neighbors, 0, this.num_neighbors, to) + 1), to);
+    }
+
+    private void insertId(int index, int neighbor_id) {
+        if (this.num_neighbors == this.neighbors.length) {
+            this.neighbors = Arrays.copyOf(this.neighbors, this.neighbors.length * 2);
+        }
+        System.arraycopy(this.neighbors, index, this.neighbors, index + 1, this.num_neighbors - index);
+        this.neighbors[index] = neighbor_id;
+        this.num_neighbors++;
+    }
+
+    private void removeId(int index) {
+        this.num_neighbors--;
+        System.arraycopy(this.neighbors, index + 1, this.neighbors, index, this.num_neighbors - index);
     }
 
 
@@ -55,8 +146,15 @@ public class Node {
      **/
     public boolean canCommunicate(Node other) {
         double distance = Point2D.distance(this.x, this.y, other.x, other.y);
-        // The 1.01 is a tiny bit of leeway due to the inaccuracies precision
-        return distance <= (comm_range * 1.01) && distance <= (other.comm_range * 1.01);
+        return distance <= (comm_range * RANGE_LEEWAY) && distance <= (other.comm_range * RANGE_LEEWAY);
+    }
+
+    /**
+     * Nodes are still only equal to themselves, but hash from the coordinates
+     * they were created at rather than from their identity.
+     **/
+    public int hashCode() {
+        return this.hash;
     }
 
     public String toString() {
@@ -66,8 +164,53 @@ public class Node {
     public double getX() { return this.x; }
     public double getY() { return this.y; }
     public double getRange() { return this.comm_range; }
-    public HashSet<Node> getNeighbors() { return this.neighbors; }
-    public int numNeighbors() { return this.neighbors.size(); }
+    public int getId() { return this.id; }
+    public int numNeighbors() { return this.num_neighbors; }
+
+    // Only Manet.moveNodes() may move a node, the CellGrid, the KDTree and
+    // the links all depend on where it is. The hash keeps the coordinates
+    // the node was created at.
+    void setPosition(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    void setId(NodeTable table, int id) {
+        this.table = table;
+        this.id = id;
+    }
+
 
+    /**
+     * getNeighbors()
+     * 	Read-only Set view of the neighbors, kept for code that wants a
+     * 	Collection. Hot loops should use numNeighbors() and getNeighbor(i).
+     * 	For a node that was removed from its Manet the view is only valid
+     * 	until the Manet changes again.
+     *
+     * @return Set<Node> of neighbors, ordered by id
+     */
+    public Set<Node> getNeighbors() {
+        return new AbstractSet<Node>() {
+            public int size() { return num_neighbors; }
+
+            public boolean contains(Object o) {
+                return (o instanceof Node) && hasNeighbor((Node) o);
+            }
+
+            public Iterator<Node> iterator() {
+                return new Iterator<Node>() {
+                    private int cursor = 0;
+                    public boolean hasNext() { return cursor < num_neighbors; }
+                    public Node next() {
+                        if (cursor >= num_neighbors) {
+                            throw new NoSuchElementException();
+                        }
+                        return getNeighbor(cursor++);
+                    }
+                };
+            }
+        };
+    }
 
 }
\ No newline at end of file
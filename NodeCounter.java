@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+
+/**
+ * NodeCounter - a packet counter per Node, stored in primitive arrays
+ * 	indexed by node id.
+ *
+ * A running total is kept next to the per-node counts, so reading it is
+ * 	O(1). Clearing is O(1) as well: every slot is stamped with the epoch it
+ * 	was last written in, and a slot from an older epoch reads as 0.
+ *
+ * Packets counted for a node that is no longer in the network still add to
+ * 	the total, they just have no slot of their own.
+ * 	A counter bound to a Topology indexes its slots by the snapshot
+ * 	instead, and never reads the ids or the table of the live network.
+ */
+public class NodeCounter {
+
+    private NodeTable graph;
+    private Topology topology;
+    private int[] counts;
+    private int[] stamps;
+    private int epoch;
+    private int total;
+
+
+    /**
+     * Constructor NodeCounter(graph)
+     *
+     * @param graph - NodeTable whose ids index the counter
+     */
+    public NodeCounter(NodeTable graph) {
+        this(graph, graph.size());
+    }
+
+    private NodeCounter(NodeTable graph, int size) {
+        this.graph = graph;
+        this.counts = new int[Math.max(16, size)];
+        this.stamps = new int[this.counts.length];
+        this.epoch = 1;
+        this.total = 0;
+    }
+
+
+    /**
+     * context()
+     * 	An empty counter over the same NodeTable. It does not look at the
+     * 	table until it counts, so any thread can make one.
+     */
+    public NodeCounter context() {
+        return new NodeCounter(this.graph, 0);
+    }
+
+
+    /**
+     * bind(topology)
+     * 	Indexes the slots by a Topology from now on, or by the ids of the
+     * 	NodeTable again when null. The total carries on, while the counts
+     * 	per node start over, the indexes of one snapshot meaning nothing
+     * 	in another.
+     */
+    public void bind(Topology topology) {
+        if (topology == this.topology) {
+            return;
+        }
+        this.topology = topology;
+        nextEpoch();
+    }
+
+    // Slot of a node, -1 if it has none
+    private int slot(Node node) {
+        if (this.topology != null) {
+            return this.topology.indexOf(node);
+        }
+        return graph.contains(node) ? node.getId() : -1;
+    }
+
+
+    /**
+     * add(node, amount)
+     * 	Counts packets for a node and adds them to the total.
+     */
+    public void add(Node node, int amount) {
+        this.total += amount;
+
+        int id = slot(node);
+        if (id < 0) {
+            return;
+        }
+
+        if (id >= counts.length) {
+            int length = Math.max(id + 1, counts.length * 2);
+            counts = Arrays.copyOf(counts, length);
+            stamps = Arrays.copyOf(stamps, length);
+        }
+
+        if (stamps[id] != epoch) {
+            stamps[id] = epoch;
+            counts[id] = 0;
+        }
+        counts[id] += amount;
+    }
+
+    public void increment(Node node) { add(node, 1); }
+
+
+    /**
+     * get(node)
+     *
+     * @return packets counted for the node since the last clear()
+     */
+    public int get(Node node) {
+        int id = slot(node);
+        return (id < 0) ? 0 : get(id);
+    }
+
+    public int get(int id) {
+        if (id >= counts.length || stamps[id] != epoch) {
+            return 0;
+        }
+        return counts[id];
+    }
+
+
+    /**
+     * move(from, to)
+     * 	Follows a swap-remove in the NodeTable: the node that had id from now
+     * 	has id to, and the old contents of slot to are dropped.
+     * 	Must be called from removeNodeCallback() before counting anything
+     * 	for the nodes of the network.
+     */
+    public void move(int from, int to) {
+        if (to < counts.length) {
+            stamps[to] = 0;
+        }
+        if (from == to) {
+            return;
+        }
+        // A hole always comes before the last id, so slot to exists
+        if (from < counts.length && stamps[from] == epoch) {
+            stamps[to] = epoch;
+            counts[to] = counts[from];
+            stamps[from] = 0;
+        }
+    }
+
+
+    /**
+     * clear()
+     * 	Starts a new epoch, which zeroes every slot and the total in O(1).
+     */
+    public void clear() {
+        this.total = 0;
+        nextEpoch();
+    }
+
+    private void nextEpoch() {
+        this.epoch++;
+
+        // Only after 2^32 clears, start the stamps over
+        if (this.epoch == 0) {
+            Arrays.fill(this.stamps, 0);
+            this.epoch = 1;
+        }
+    }
+
+
+    public int getTotal() { return this.total; }
+}
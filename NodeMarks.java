@@ -0,0 +1,58 @@
+import java.util.Arrays;
+
+
+/**
+ * NodeMarks - a set of node ids that can be emptied in O(1), used as the
+ * 	visited and coverage bitmaps of graph traversals.
+ *
+ * Like NodeCounter, every slot holds the epoch it was marked in, so a
+ * 	traversal can reuse the same array without clearing it.
+ */
+public class NodeMarks {
+
+    private int[] stamps;
+    private int epoch;
+
+
+    public NodeMarks() {
+        this.stamps = new int[16];
+        this.epoch = 1;
+    }
+
+
+    /**
+     * clear(size)
+     * 	Unmarks every id, and makes room for ids up to size - 1.
+     */
+    public void clear(int size) {
+        if (size > this.stamps.length) {
+            this.stamps = new int[Math.max(size, this.stamps.length * 2)];
+            this.epoch = 1;
+            return;
+        }
+
+        this.epoch++;
+
+        // Only after 2^32 clears, start the stamps over
+        if (this.epoch == 0) {
+            Arrays.fill(this.stamps, 0);
+            this.epoch = 1;
+        }
+    }
+
+
+    /**
+     * mark(id)
+     *
+     * @return true if the id was not marked yet
+     */
+    public boolean mark(int id) {
+        if (this.stamps[id] == this.epoch) {
+            return false;
+        }
+        this.stamps[id] = this.epoch;
+        return true;
+    }
+
+    public boolean isMarked(int id) { return this.stamps[id] == this.epoch; }
+}
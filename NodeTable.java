@@ -0,0 +1,132 @@
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * NodeTable - the set of Nodes in a Manet, stored in a dense array.
+ *
+ * Every node gets the index of its slot as its id when it is added, so ids
+ * 	always run from 0 to size() - 1 and can be used to index plain arrays.
+ * 	Iteration walks the array, which keeps the order of a run the same for
+ * 	the same seed.
+ *
+ * Removal swaps the last node into the hole, so it is O(1):
+ * 	the node that used to have id size() takes over the id of the removed
+ * 	node, while the removed node keeps its old (now stale) id.
+ * 	The neighbor ids stored in the moved node's neighbors are patched.
+ */
+public class NodeTable extends AbstractSet<Node> {
+
+    private Node[] nodes;
+    private int size;
+
+
+    public NodeTable() {
+        this.nodes = new Node[16];
+        this.size = 0;
+    }
+
+
+    /**
+     * add(node)
+     * 	Appends a node and gives it the next id.
+     *
+     * @return true if the node was not already in the table
+     */
+    public boolean add(Node node) {
+        if (contains(node)) {
+            return false;
+        }
+
+        if (size == nodes.length) {
+            Node[] grown = new Node[nodes.length * 2];
+            System.arraycopy(nodes, 0, grown, 0, size);
+            nodes = grown;
+        }
+
+        node.setId(this, size);
+        nodes[size] = node;
+        size++;
+        return true;
+    }
+
+
+    /**
+     * remove(node)
+     * 	Swap-removes a node, moving the last node of the table into its slot.
+     *
+     * @return true if the node was in the table
+     */
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+
+        Node removed = (Node) o;
+        int hole = removed.getId();
+        size--;
+
+        if (hole != size) {
+            Node moved = nodes[size];
+            nodes[hole] = moved;
+            moved.setId(this, hole);
+
+            // Neighbors refer to each other by id, so patch the moved node's
+            for (int i = 0; i < moved.numNeighbors(); i++) {
+                nodes[moved.getNeighborId(i)].renumberNeighbor(size, hole);
+            }
+            removed.renumberNeighbor(size, hole);
+        }
+        nodes[size] = null;
+        return true;
+    }
+
+
+    public boolean contains(Object o) {
+        if (!(o instanceof Node)) {
+            return false;
+        }
+        int id = ((Node) o).getId();
+        return id >= 0 && id < size && nodes[id] == o;
+    }
+
+
+    public Node get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No node with id " + id);
+        }
+        return nodes[id];
+    }
+
+    public int size() { return this.size; }
+
+
+    // Iterable Implementation Code
+    public Iterator<Node> iterator() {
+        return new Iterator<Node>() {
+            private int cursor = 0;
+            private boolean removable = false;
+
+            public boolean hasNext() { return cursor < size; }
+
+            public Node next() {
+                if (cursor >= size) {
+                    throw new NoSuchElementException();
+                }
+                removable = true;
+                return nodes[cursor++];
+            }
+
+            // The last node moves into the hole, so it still has to be visited
+            public void remove() {
+                if (!removable) {
+                    throw new IllegalStateException();
+                }
+                removable = false;
+                cursor--;
+                NodeTable.this.remove(nodes[cursor]);
+            }
+        };
+    }
+}
@@ -1,7 +1,16 @@
 import java.util.HashSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Arrays;
+import java.util.Set;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.function.IntUnaryOperator;
 import java.awt.BasicStroke;
 import edu.rit.numeric.plot.Plot;
 import edu.rit.numeric.ListXYSeries;
@@ -9,75 +18,212 @@ import edu.rit.numeric.ListXYSeries;
 
 public class OLSRWrapper extends ManetWrapper {
 
-    HashMap<Node, Integer> tc_recv_counter;
+    NodeCounter tc_recv_counter;
     HashSet<Node> mpr_set;
 
+    // The MPRs each node selected, and how many nodes selected each MPR
+    HashMap<Node, Node[]> mpr_selection;
+    NodeCounter mpr_selectors;
+
+    // Two-hop neighborhood of every node, patched by the callbacks
+    private TwoHopTable two_hops;
+
+    // Reusable id-keyed bitmaps for MPR selection
+    private NodeMarks covered = new NodeMarks();
+    private NodeMarks n_two = new NodeMarks();
+    private NodeMarks selected = new NodeMarks();
+    private NodeMarks lonely = new NodeMarks();
+
+    // Bucket queue of the greedy selection, one bitset of N1 positions per
+    // count of uncovered nodes
+    private long[] buckets = new long[16];
+
+    // Routing tables of the sources pinged so far, dropped on every change
+    private LinkedHashMap<Node, int[]> routes;
+    private int[] route_queue = new int[0];
+
+    // At most this many table slots are kept, least recently used go first
+    static final int MAX_ROUTE_SLOTS = 1 << 22;
+    private static final int UNREACHED = -2;
+
+    // Routines timed in the metrics
+    private final int ping_routine = metrics.routine("ping");
+    private final int table_routine = metrics.routine("routingTable");
+    private final int find_routine = metrics.routine("findMPRs");
+    private final int flood_routine = metrics.routine("floodTopology");
+    private final int reselect_routine = metrics.routine("reselect");
+    private final int callback_routine = metrics.routine("callbacks");
+
 
     public OLSRWrapper(Manet network, long selector_seed) {
         super(network, selector_seed);
-        this.tc_recv_counter = new HashMap<Node, Integer>();
-
-        this.mpr_set = findMPRs(getRandomNode());
+        this.tc_recv_counter = counter();
+        this.routes = new LinkedHashMap<Node, int[]>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Node, int[]> eldest) {
+                return (long) size() * getManetSize() > MAX_ROUTE_SLOTS;
+            }
+        };
 
-        // Initialize all the counters for metrics
+        this.mpr_set = new HashSet<Node>();
+        this.mpr_selection = new HashMap<Node, Node[]>();
+        this.mpr_selectors = new NodeCounter(network.getGraph());
+        this.two_hops = new TwoHopTable(network.getGraph());
         for (Node node : this.network.getGraph()) {
-            tc_recv_counter.put(node, 0);
+            reselect(node);
+        }
+
+        // A view published before this protocol joined gets its MPRs too
+        Topology view = network.view();
+        if (view != null) {
+            topologyPublishedCallback(view);
         }
     }
 
 
     public int getTotalPacketsRecieved() {
-        int total = 0;
-        for (Node node : tc_recv_counter.keySet()) {
-            total = total + tc_recv_counter.get(node);
-        }
-
-        return total;
+        return total(tc_recv_counter);
     }
 
 
     // Return the number of messages it takes to ping
     public LinkedList<Node> ping(Node source, Node destination) {
-        LinkedList<Node> queue = new LinkedList<Node>();
-        HashSet<Node> visited = new HashSet<Node>();
-        HashMap<Node, Node> predecessors = new HashMap<Node, Node>();
-
-        queue.add(source);
-        predecessors.put(source, null);
-        visited.add(source);
-
-        // Perform a modified BFS to just get the number of hops
-        // from source to destination.
-        while (!queue.isEmpty()) {
-            Node t = queue.removeFirst();
-            
-            // if we got there, return number of hops
-            if(t == destination) {
-                return constructPath(predecessors, destination);
-            }
+        long start = System.nanoTime();
+        LinkedList<Node> path = route(source, destination);
+        metrics().time(ping_routine, start);
+        return recordPath(path, destination);
+    }
 
+    private LinkedList<Node> route(Node source, Node destination) {
+        int[] table = routingTable(source);
+        int current = destination.getId();
 
-            for (Node neighbor : t.getNeighbors()) {
-                // If seen already, skip
-                if (visited.contains(neighbor)) { continue; }
-                else { 
-                    visited.add(neighbor);
-                    predecessors.put(neighbor, t);
-                }
+        if (table[current] == UNREACHED) {
+            System.out.println("Error - Could not reach destination.");
+            return null;
+        }
+
+        // Walk the route back from the destination
+        NodeTable graph = this.network.getGraph();
+        LinkedList<Node> path = new LinkedList<Node>();
+
+        while (current != -1) {
+            Node node = graph.get(current);
+            count(tc_recv_counter, node, 1);
+            current = table[current];
+            path.push(current == -1 ? null : graph.get(current));
+        }
+
+        return path;
+    }
+
+
+    /**
+     * routingTable(source)
+     * 	The routes from a source to every node, built from the MPR topology
+     * 	on the first ping from that source. The table holds, by id, the node
+     * 	each node is reached from: -1 for the source itself, UNREACHED for
+     * 	nodes the source cannot reach.
+     * 	It is the tree of the modified BFS ping used to run per pair, where
+     * 	only the source and the MPRs forward, so a walk along it gives the
+     * 	same paths.
+     */
+    private int[] routingTable(Node source) {
+        int[] table = this.routes.get(source);
+        if (table != null) {
+            return table;
+        }
+        long start = System.nanoTime();
+
+        NodeTable graph = this.network.getGraph();
+        table = new int[graph.size()];
+        Arrays.fill(table, UNREACHED);
+        if (this.route_queue.length < graph.size()) {
+            this.route_queue = new int[graph.size()];
+        }
 
+        int[] queue = this.route_queue;
+        int head = 0;
+        int tail = 0;
 
-                if (neighbor == destination) {
-                    return constructPath(predecessors, destination);
+        queue[tail++] = source.getId();
+        table[source.getId()] = -1;
+
+        while (head < tail) {
+            Node t = graph.get(queue[head++]);
+
+            for (int i = 0; i < t.numNeighbors(); i++) {
+                int neighbor = t.getNeighborId(i);
+                if (table[neighbor] != UNREACHED) { continue; }
+                table[neighbor] = t.getId();
+
+                // Only MPRs forward the message
+                if (this.mpr_set.contains(graph.get(neighbor))) {
+                    queue[tail++] = neighbor;
                 }
+            }
+        }
+
+        this.routes.put(source, table);
+        metrics().time(table_routine, start);
+        return table;
+    }
+
+
+    // Same modified BFS as ping(source, destination), over a CSR snapshot
+    protected LinkedList<Node> pingTopology(Topology topology, Node source, Node destination) {
+        long start = System.nanoTime();
+        LinkedList<Node> path = route(topology, source, destination);
+        metrics().time(ping_routine, start);
+        return recordPath(path, destination);
+    }
+
+    private LinkedList<Node> route(Topology topology, Node source, Node destination) {
+        int[] offsets = topology.offsets();
+        int[] targets = topology.targets();
+
+        // MPR membership by index in the snapshot, attached to every view
+        // since mpr_set may be changing on the writing thread. Any other
+        // snapshot is only pinged while the network holds still
+        boolean[] is_mpr = (boolean[]) topology.attachment(this);
+        if (is_mpr == null) {
+            is_mpr = mprMask(topology);
+        }
+
+        int[] queue = new int[topology.size()];
+        int[] predecessors = new int[topology.size()];
+        boolean[] visited = new boolean[topology.size()];
+        int head = 0;
+        int tail = 0;
+
+        int start = topology.indexOf(source);
+        int end = topology.indexOf(destination);
+
+        queue[tail++] = start;
+        predecessors[start] = -1;
+        visited[start] = true;
+
+        while (head < tail) {
+            int t = queue[head++];
 
-                // if it's just a normal node, ignore it
-                if (!mpr_set.contains(neighbor)) {
-                    visited.add(neighbor);
-                    continue;
+            if (t == end) {
+                return constructPath(topology, predecessors, end);
+            }
+
+            for (int e = offsets[t]; e < offsets[t + 1]; e++) {
+                int neighbor = targets[e];
+
+                if (visited[neighbor]) { continue; }
+                visited[neighbor] = true;
+                predecessors[neighbor] = t;
+
+                if (neighbor == end) {
+                    return constructPath(topology, predecessors, end);
                 }
 
-                queue.add(neighbor);
-                visited.add(neighbor);
+                // Only MPRs forward the message
+                if (is_mpr[neighbor]) {
+                    queue[tail++] = neighbor;
+                }
             }
         }
         System.out.println("Error - Could not reach destination.");
@@ -85,209 +231,562 @@ public class OLSRWrapper extends ManetWrapper {
     }
 
 
-    // Path generation helper for ping
-    private LinkedList<Node> constructPath(HashMap<Node, Node> predecessors, Node destination) {
-        Node current = destination;
+    private boolean[] mprMask(Topology topology) {
+        boolean[] is_mpr = new boolean[topology.size()];
+        for (Node mpr : this.mpr_set) {
+            int v = topology.indexOf(mpr);
+            if (v >= 0) { is_mpr[v] = true; }
+        }
+        return is_mpr;
+    }
+
+
+    // Path generation helper for the snapshot ping, same shape as below
+    private LinkedList<Node> constructPath(Topology topology, int[] predecessors, int destination) {
+        int current = destination;
         LinkedList<Node> path = new LinkedList<Node>();
 
-        while (current != null) {
-            int overhead = tc_recv_counter.get(current);
-            tc_recv_counter.put(current, overhead + 1);
-            current = predecessors.get(current);
-            path.push(current);
+        while (current != -1) {
+            Node node = topology.getNode(current);
+            count(tc_recv_counter, node, 1);
+            current = predecessors[current];
+            path.push(current == -1 ? null : topology.getNode(current));
         }
 
         return path;
     }
 
 
-
-    public void floodTopology(Node source, int reps) { 
-        HashSet<Node> visited = floodTopology(source, new HashSet<Node>(), reps);
-        return;
+    /**
+     * floodTopology(source, reps)
+     * 	Floods a TC message from a node, each node receiving it counts reps.
+     * 	Only MPRs forward, and every MPR forwards at most once, so a message
+     * 	from an MPR with any neighbor ends up at every MPR, while a message
+     * 	from anything else stays at the source.
+     */
+    public void floodTopology(Node source, int reps) {
+        long start = System.nanoTime();
+        receive(source, reps);
+
+        if (this.mpr_set.contains(source) && source.numNeighbors() > 0) {
+            for (Node mpr : this.mpr_set) {
+                if (mpr != source) {
+                    receive(mpr, reps);
+                }
+            }
+        }
+        metrics().time(flood_routine, start);
     }
 
 
+    /**
+     * floodTopology(source, visited, reps)
+     * 	Same as floodTopology(source, reps), skipping the nodes that
+     * 	already saw the message.
+     *
+     * @return visited, with the nodes that received the message added
+     */
     public HashSet<Node> floodTopology(Node source, HashSet<Node> visited, int reps) {
-        if(visited.contains(source)) {
+        if (!visited.add(source)) {
             return visited;
         }
-        visited.add(source);
-
-
-        // Message recieved
-        int msg = tc_recv_counter.get(source) + reps;
-        tc_recv_counter.put(source, msg);   
-
-
-        // From here on is the default forwarding protocol
+        receive(source, reps);
 
         // If this is not an MPR, just return and don't propegate.
-        if (!this.mpr_set.contains(source)) {            
+        if (!this.mpr_set.contains(source)) {
             return visited;
         }
 
-        // N1 layer is just neighbors of source
-        HashSet<Node> n_one = source.getNeighbors();
-        // N2 layer is layer of N1's neighbors
-        HashSet<Node> n_two = new HashSet<Node>();
-        
-        HashSet<Node> coverage = new HashSet<Node>(visited);
-
         // If there are no "unseen" nodes from this source, return
-        HashSet<Node> unseen = new HashSet<Node>(n_one);
-        unseen.removeAll(coverage);
-        if (unseen.isEmpty()) {
-            return visited;
+        boolean unseen = false;
+        for (int i = 0; i < source.numNeighbors() && !unseen; i++) {
+            unseen = !visited.contains(source.getNeighbor(i));
         }
-
-        HashSet<Node> next_mpr = new HashSet<Node>(this.mpr_set);
-        next_mpr.removeAll(visited);
-        if (next_mpr.isEmpty()) {
+        if (!unseen) {
             return visited;
         }
 
-        for (Node mpr : next_mpr) {
-            visited = floodTopology(mpr, visited, reps);
+        // Every MPR that has not seen the message relays it once
+        for (Node mpr : this.mpr_set) {
+            if (visited.add(mpr)) {
+                receive(mpr, reps);
+            }
         }
 
-        return visited; 
+        return visited;
+    }
+
+    // Every node the TC reaches also forwards it, or sent it first
+    private void receive(Node node, int reps) {
+        count(tc_recv_counter, node, reps);
+        packetReceived(PacketType.TC, node, reps);
+        for (int i = 0; i < reps; i++) {
+            packetSent(PacketType.TC, node);
+        }
     }
 
 
 
+    /**
+     * findMPRs(source)
+     * 	Builds an MPR set for the whole network from a single node:
+     * 	the source selects MPRs for its 2-hop neighborhood, then every
+     * 	selected MPR does the same for what is still uncovered, depth first
+     * 	in the order the MPRs were selected.
+     * 	Uses an explicit stack, so the depth of the network does not matter.
+     */
     public HashSet<Node> findMPRs(Node source) {
-        return findMPRs(source, new HashSet<Node>());
+        long start = System.nanoTime();
+        this.covered.clear(this.network.getGraph().size());
+        HashSet<Node> mprs = expandMPRs(source, true);
+        metrics().time(find_routine, start);
+        return mprs;
     }
 
 
+    /**
+     * findMPRs(source, coverage)
+     * 	Same as findMPRs(source), starting from the nodes already covered.
+     *
+     * @param coverage - covered nodes, the newly covered ones are added to it
+     */
     public HashSet<Node> findMPRs(Node source, HashSet<Node> coverage) {
+        long start = System.nanoTime();
+        NodeTable graph = this.network.getGraph();
+        this.covered.clear(graph.size());
+        for (Node node : coverage) {
+            if (graph.contains(node)) {
+                this.covered.mark(node.getId());
+            }
+        }
+
+        HashSet<Node> mprs = expandMPRs(source, coverage.isEmpty());
+
+        for (Node node : graph) {
+            if (this.covered.isMarked(node.getId())) {
+                coverage.add(node);
+            }
+        }
+        metrics().time(find_routine, start);
+        return mprs;
+    }
+
 
-        // N1 layer is just neighbors of source
-        HashSet<Node> n_one = source.getNeighbors();
-        // N2 layer is the layer of neighbors from the source
-        HashSet<Node> n_two = new HashSet<Node>();
-        // List of selected nodes for the MPRs on this layer
-        HashSet<Node> selectedMPRs = new HashSet<Node>();
+    private HashSet<Node> expandMPRs(Node source, boolean root) {
+        HashSet<Node> mprs = new HashSet<Node>();
+        ArrayList<Node> layer = new ArrayList<Node>();
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
 
         // Add the initial node to the MPR set.
-        if(coverage.isEmpty()) {
-            selectedMPRs.add(source);
-            coverage.add(source);
+        if (root) {
+            mprs.add(source);
+            this.covered.mark(source.getId());
         }
 
-        // Generate N2
-        for (Node n : n_one ) {
-            for (Node neighbor : n.getNeighbors()) {
-                if (neighbor != source && !n_one.contains(neighbor)) {
-                    n_two.add(neighbor);
-                }
+        stack.push(source);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            selectLayer(node, layer);
+            mprs.addAll(layer);
+
+            // Pushed in reverse, so the first MPR selected is expanded first
+            for (int k = layer.size() - 1; k >= 0; k--) {
+                stack.push(layer.get(k));
             }
         }
 
-        // Base Case
-        // If there are no "unseen" nodes from this source, return an empty list
-        HashSet<Node> unseen = new HashSet<Node>(n_one);
-        unseen.addAll(n_two);
-        
-        unseen.removeAll(coverage);
-        if (unseen.isEmpty()) {
-            return selectedMPRs;
+        return mprs;
+    }
+
+
+    /**
+     * selectLayer(source, layer)
+     * 	Selects the MPRs of one node for the part of its 2-hop neighborhood
+     * 	that is not covered yet, and marks what they cover:
+     * 	first every N1 node with a single-neighbor node behind it, then
+     * 	greedily the N1 node covering the most uncovered nodes.
+     * 	Ties go to the one first in the neighbors of the source.
+     *
+     * @param layer - filled with the selected MPRs, in the order selected
+     */
+    private void selectLayer(Node source, ArrayList<Node> layer) {
+        layer.clear();
+        this.n_two.clear(this.network.getGraph().size());
+        this.selected.clear(this.network.getGraph().size());
+        this.lonely.clear(this.network.getGraph().size());
+
+        boolean unseen = false;
+        for (int i = 0; i < source.numNeighbors(); i++) {
+            unseen = unseen || !this.covered.isMarked(source.getNeighborId(i));
+        }
+
+        // N2 layer, the nodes two hops away and not one, read off the table.
+        // A single-neighbor node in it makes its one neighbor lonely
+        int uncovered = 0;
+        TwoHopTable.Neighborhood two_hop = this.two_hops.get(source);
+        for (int slot = 0; slot < two_hop.capacity(); slot++) {
+            Node neighbor = two_hop.node(slot);
+            if (neighbor == null || source.hasNeighbor(neighbor)) {
+                continue;
+            }
+            this.n_two.mark(neighbor.getId());
+            if (!this.covered.isMarked(neighbor.getId())) {
+                uncovered++;
+            }
+            if (neighbor.numNeighbors() == 1) {
+                this.lonely.mark(neighbor.getNeighborId(0));
+            }
         }
 
+        // Base Case
+        // If there are no "unseen" nodes from this source, select nothing
+        if (!unseen && uncovered == 0) {
+            return;
+        }
 
-        coverage.add(source);
-        coverage.addAll(n_one);
+        this.covered.mark(source.getId());
+        for (int i = 0; i < source.numNeighbors(); i++) {
+            this.covered.mark(source.getNeighborId(i));
+        }
 
         // Single-neighbor nodes in N2
-        for (Node n : n_one) {
-            for (Node neighbor : n.getNeighbors()) {
-                if (neighbor == source || n_one.contains(neighbor)) {
-                    continue;
-                }
-                if (neighbor.numNeighbors() == 1) {
-                    selectedMPRs.add(n);
-                }
+        for (int i = 0; i < source.numNeighbors(); i++) {
+            Node n = source.getNeighbor(i);
+            if (this.lonely.isMarked(n.getId())) {
+                this.selected.mark(n.getId());
+                layer.add(n);
+                uncovered -= cover(n);
             }
+        }
+
+        if (uncovered > 0) {
+            selectGreedy(source, layer, uncovered);
+        }
+    }
+
 
-            if (selectedMPRs.contains(n)) {
-                coverage.addAll(n.getNeighbors());
+    /**
+     * selectGreedy(source, layer, uncovered)
+     * 	Lazy greedy set cover of what is left of the 2-hop neighborhood,
+     * 	over the N1 nodes not selected yet.
+     * 	Bucket g of the queue holds the positions, in the neighbors of the
+     * 	source, of the nodes that covered g uncovered nodes when last
+     * 	counted. Counts only go down as MPRs are added, so a node is only
+     * 	recounted when it is the first of the top bucket: if its count
+     * 	still holds it is the pick, otherwise it drops to its new bucket.
+     * 	Taking the first position of the top bucket keeps the ties of the
+     * 	plain greedy scan.
+     */
+    private void selectGreedy(Node source, ArrayList<Node> layer, int uncovered) {
+        int degree = source.numNeighbors();
+        int words = (degree + 63) >>> 6;
+
+        int top = 0;
+        for (int i = 0; i < degree; i++) {
+            top = Math.max(top, uncoveredNeighbors(source.getNeighbor(i)));
+        }
+        if (this.buckets.length < (top + 1) * words) {
+            this.buckets = new long[Math.max((top + 1) * words, this.buckets.length * 2)];
+        } else {
+            Arrays.fill(this.buckets, 0, (top + 1) * words, 0L);
+        }
+
+        for (int i = 0; i < degree; i++) {
+            Node n = source.getNeighbor(i);
+            if (!this.selected.isMarked(n.getId())) {
+                this.buckets[uncoveredNeighbors(n) * words + (i >>> 6)] |= 1L << i;
             }
         }
 
-        while (!coverage.containsAll(n_two)) {
+        while (uncovered > 0) {
+            int i = firstPosition(top, words);
+            if (i < 0) {
+                top--;
+                continue;
+            }
+            this.buckets[top * words + (i >>> 6)] &= ~(1L << i);
 
-            // Go through all remaining in the N1 layer, find the one with the
-            // most amount of uncovered neighbors
-            HashSet<Node> remaining = new HashSet<Node>(n_one);
-            remaining.removeAll(selectedMPRs);
+            Node n = source.getNeighbor(i);
+            int count = uncoveredNeighbors(n);
+            if (count < top) {
+                this.buckets[count * words + (i >>> 6)] |= 1L << i;
+                continue;
+            }
 
-            Node maximum = null;
-            int max_num = 0;
+            this.selected.mark(n.getId());
+            layer.add(n);
+            uncovered -= cover(n);
+        }
+    }
 
-            for (Node n : remaining) {
-                if (maximum == null) { maximum = n; }
+    // Lowest position in a bucket, -1 if it is empty
+    private int firstPosition(int bucket, int words) {
+        for (int w = 0; w < words; w++) {
+            long bits = this.buckets[bucket * words + w];
+            if (bits != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    // Neighbors of an N1 node not covered yet, which are all in N2
+    private int uncoveredNeighbors(Node n) {
+        int count = 0;
+        for (int j = 0; j < n.numNeighbors(); j++) {
+            if (!this.covered.isMarked(n.getNeighborId(j))) {
+                count++;
+            }
+        }
+        return count;
+    }
 
-                HashSet<Node> neighbors_clone = new HashSet<Node>(n.getNeighbors());
-                neighbors_clone.removeAll(coverage);
 
-                if (neighbors_clone.size() > max_num) {
-                    maximum = n;
-                    max_num = neighbors_clone.size();
-                }
+    // Marks the neighbors of an MPR as covered, returns how many were in N2
+    private int cover(Node mpr) {
+        int newly_covered = 0;
+        for (int i = 0; i < mpr.numNeighbors(); i++) {
+            int id = mpr.getNeighborId(i);
+            if (this.covered.mark(id) && this.n_two.isMarked(id)) {
+                newly_covered++;
             }
+        }
+        return newly_covered;
+    }
+
 
-            selectedMPRs.add(maximum);
-            coverage.addAll(maximum.getNeighbors());
+    // Adds the neighbors of a node to a set without allocating an iterator
+    private static void addNeighbors(HashSet<Node> set, Node node) {
+        for (int i = 0; i < node.numNeighbors(); i++) {
+            set.add(node.getNeighbor(i));
         }
+    }
+
+
+    /**
+     * selectMPRs(source)
+     * 	The MPRs one node picks to cover its own 2-hop neighborhood, the
+     * 	first layer of findMPRs(source). The selection only depends on the
+     * 	2-hop neighborhood of the source.
+     *
+     * @return selected MPRs, in the order selected
+     */
+    public Node[] selectMPRs(Node source) {
+        ArrayList<Node> layer = new ArrayList<Node>();
+        this.covered.clear(this.network.getGraph().size());
+        selectLayer(source, layer);
+        return layer.toArray(NO_MPRS);
+    }
+
+    private static final Node[] NO_MPRS = new Node[0];
 
 
-        HashSet<Node> retSet = new HashSet<Node>();
-        retSet.addAll(selectedMPRs);
-        for (Node mpr : selectedMPRs) {
-            if (mpr != source) {
-                // Add the MPRs that come back from the recursion
-                retSet.addAll(findMPRs(mpr, coverage));
+    /**
+     * computeMPRs()
+     * 	Full recompute of the MPR set, the union of the selection of every
+     * 	node. The callbacks keep mpr_set equal to this incrementally.
+     */
+    public HashSet<Node> computeMPRs() {
+        HashSet<Node> mprs = new HashSet<Node>();
+        for (Node node : this.network.getGraph()) {
+            for (Node mpr : selectMPRs(node)) {
+                mprs.add(mpr);
             }
         }
+        return mprs;
+    }
+
 
-        return retSet;
+    /**
+     * reselect(node)
+     * 	Recomputes the selection of one node and patches mpr_set, a node
+     * 	stays an MPR as long as at least one node selects it.
+     */
+    private void reselect(Node node) {
+        long start = System.nanoTime();
+        Node[] old = this.mpr_selection.get(node);
+        Node[] chosen = selectMPRs(node);
+        this.mpr_selection.put(node, chosen);
+
+        for (Node mpr : chosen) {
+            this.mpr_selectors.increment(mpr);
+            this.mpr_set.add(mpr);
+        }
+        if (old != null) {
+            unselect(old);
+        }
+        metrics().time(reselect_routine, start);
     }
 
+    private void unselect(Node[] mprs) {
+        for (Node mpr : mprs) {
+            this.mpr_selectors.add(mpr, -1);
+            if (this.mpr_selectors.get(mpr) <= 0) {
+                this.mpr_set.remove(mpr);
+            }
+        }
+    }
 
-    public void addNodeCallback(Node node) {
-        tc_recv_counter.put(node, 0);
-        
-        // Find new MPRs
-        boolean update = true;
-        for (Node neighbor : node.getNeighbors()) {
-            if (this.mpr_set.contains(neighbor)) {
-                update = false;
+
+    /**
+     * addAffected(affected, node, old_degree)
+     * 	Collects the nodes whose selection can change when the links of a
+     * 	node change: everything within 2 hops of it.
+     * 	A neighbor that had a single link before, or has one now, takes part
+     * 	in the single-neighbor rule of the nodes 2 hops from it, so its own
+     * 	2-hop neighborhood is collected as well.
+     *
+     * @param old_degree - function giving the degree of a neighbor before the change
+     */
+    private void addAffected(HashSet<Node> affected, Node node, IntUnaryOperator old_degree) {
+        addTwoHops(affected, node);
+        for (int i = 0; i < node.numNeighbors(); i++) {
+            Node n = node.getNeighbor(i);
+            int before = old_degree.applyAsInt(i);
+            if ((before == 1) != (n.numNeighbors() == 1)) {
+                addTwoHops(affected, n);
             }
         }
+    }
+
+    private static void addTwoHops(HashSet<Node> affected, Node node) {
+        affected.add(node);
+        for (int i = 0; i < node.numNeighbors(); i++) {
+            Node n = node.getNeighbor(i);
+            affected.add(n);
+            addNeighbors(affected, n);
+        }
+    }
+
+
+    public void addNodeCallback(Node node) {
+        long start = System.nanoTime();
+
+        // Any change can reroute any source
+        this.routes.clear();
+        this.two_hops.addNodes(Collections.singletonList(node));
+
+        // Only the 2-hop neighborhood of the new node can select differently
+        HashSet<Node> affected = new HashSet<Node>();
+        addAffected(affected, node, i -> node.getNeighbor(i).numNeighbors() - 1);
+        for (Node n : affected) {
+            reselect(n);
+        }
+
+
+        int num_reps = 1;
+
+        for (Node mpr : this.mpr_set) {
+            floodTopology(mpr, num_reps);
+        }
+        metrics().time(callback_routine, start);
+    }
+
+
+    // A batch of nodes triggers one MPR update and one flood
+    public void addNodesCallback(List<Node> nodes) {
+        long start = System.nanoTime();
+        this.routes.clear();
+
+        // The batch holds the last ids of the table
+        int first = this.network.getGraph().size() - nodes.size();
+        this.two_hops.addNodes(nodes);
+
+        HashSet<Node> affected = new HashSet<Node>();
+        for (Node node : nodes) {
+            addAffected(affected, node, i -> {
+                Node n = node.getNeighbor(i);
+                int before = 0;
+                for (int j = 0; j < n.numNeighbors(); j++) {
+                    if (n.getNeighborId(j) < first) { before++; }
+                }
+                return n.getId() < first ? before : 0;
+            });
+        }
+        for (Node n : affected) {
+            reselect(n);
+        }
+
+
+        int num_reps = 1;
 
-        if (update) {
-            this.mpr_set = findMPRs(getRandomNode());
+        for (Node mpr : this.mpr_set) {
+            floodTopology(mpr, num_reps);
         }
+        metrics().time(callback_routine, start);
+    }
+
+
+    public void removeNodeCallback(Node node) {
+        long start = System.nanoTime();
+        this.routes.clear();
 
+        NodeTable graph = this.network.getGraph();
+        this.mpr_selectors.move(graph.size(), node.getId());
+        this.tc_recv_counter.move(graph.size(), node.getId());
+        this.metrics.move(graph.size(), node.getId());
+        this.two_hops.removeNode(node);
+
+        // The removed node drops its selection and nobody can select it again
+        unselect(this.mpr_selection.remove(node));
+        this.mpr_set.remove(node);
+
+        // The node still knows its old neighbors, whose 2-hop neighborhoods
+        // are the only ones that changed
+        HashSet<Node> affected = new HashSet<Node>();
+        addAffected(affected, node, i -> node.getNeighbor(i).numNeighbors() + 1);
+        affected.remove(node);
+
+        // The moved node changed id, which changes the tie-breaking order
+        // of the nodes next to it
+        if (node.getId() < graph.size()) {
+            Node moved = graph.get(node.getId());
+            addNeighbors(affected, moved);
+        }
+
+        for (Node n : affected) {
+            reselect(n);
+        }
 
         int num_reps = 1;
 
         for (Node mpr : this.mpr_set) {
             floodTopology(mpr, num_reps);
         }
+        metrics().time(callback_routine, start);
     }
 
 
-    public void removeNodeCallback(Node node) {        
-        // Find new MPRs
-        this.mpr_set = findMPRs(getRandomNode());
+    // Moving nodes only change links, the nodes around both ends of each
+    // link reselect, and the whole tick triggers one flood
+    public void linksChangedCallback(List<Node[]> up, List<Node[]> down) {
+        long start = System.nanoTime();
+        this.routes.clear();
+        this.two_hops.linksChanged(up, down);
+
+        HashSet<Node> affected = new HashSet<Node>();
+        for (List<Node[]> links : Arrays.asList(up, down)) {
+            for (Node[] link : links) {
+                addTwoHops(affected, link[0]);
+                addTwoHops(affected, link[1]);
+            }
+        }
+        for (Node n : affected) {
+            reselect(n);
+        }
 
         int num_reps = 1;
 
         for (Node mpr : this.mpr_set) {
             floodTopology(mpr, num_reps);
         }
+        metrics().time(callback_routine, start);
+    }
+
+
+    // Readers on other threads take the MPRs of a view along with its links
+    public void topologyPublishedCallback(Topology view) {
+        view.attach(this, mprMask(view));
     }
 
 
@@ -312,9 +811,7 @@ public class OLSRWrapper extends ManetWrapper {
 
 
     public void clearMetrics() {
-        for(Node n : tc_recv_counter.keySet()) {
-            tc_recv_counter.put(n, 0);
-        }
+        clearCounters();
     }
 
 
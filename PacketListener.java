@@ -0,0 +1,29 @@
+/**
+ * PacketListener
+ * 	This interface is used by a ManetWrapper to report every control
+ * 	packet it sends, for modes that simulate the packets themselves
+ * 	instead of only counting them.
+ *
+ *	packetSent()
+ *
+ */
+public interface PacketListener {
+    /**
+     * Called by a ManetWrapper each time a node sends a packet
+     * @param type
+     * @param node - the sender
+     */
+    public void packetSent(PacketType type, Node node);
+    /**
+     * Called instead for a packet to one neighbor, which the sender only
+     * sends once the last packet from cause to it arrived. By default
+     * passed on to packetSent(type, node).
+     * @param type
+     * @param node - the sender
+     * @param to - the neighbor the packet is for
+     * @param cause - node whose packet the sender answers, null if none
+     */
+    public default void packetSent(PacketType type, Node node, Node to, Node cause) {
+        packetSent(type, node);
+    }
+}
\ No newline at end of file
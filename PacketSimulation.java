@@ -0,0 +1,505 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Set;
+import edu.rit.sim.Event;
+import edu.rit.sim.Simulation;
+
+
+/**
+ * PacketSimulation - a discrete-event, packet level mode for running a
+ * 	routing protocol over a Manet, built on edu.rit.sim.
+ *
+ * Every packet goes through the FIFO queue of the node sending it. A node
+ * 	transmits one packet at a time, each taking the transmission delay,
+ * 	and a packet reaches a neighbor after the propagation delay for the
+ * 	distance between the two nodes.
+ * 	Data packets follow the path the protocol gives for them with ping().
+ * 	Control packets are the ones the protocol reports through its
+ * 	PacketListener while the simulation runs. A packet for one neighbor
+ * 	that answers another packet, like a forwarded QRY or an UPD of TORA,
+ * 	is only queued once the packet it answers arrived at its sender, so a
+ * 	route discovery spreads hop by hop. A data packet whose source had no
+ * 	route is held until the packet that gives it one arrives. The other
+ * 	control packets are queued at their sender right away.
+ * 	HELLO beacons can be added on top with startHellos(), and the TCs of
+ * 	OLSR with startTCs().
+ *
+ * Pending events sit in the binary heap of the Simulation, so millions of
+ * 	them only cost a small object each. A node has at most one pending
+ * 	transmission, and a packet for one neighbor at most one pending
+ * 	arrival.
+ */
+public class PacketSimulation implements PacketListener {
+
+    private static class Packet {
+        PacketType type;
+        Node[] hops;        // Source first, destination last, null for control
+        int hop;            // Index of the node holding the packet
+        double created;
+        Node to;            // Neighbor a control packet is for, or null
+        Flood flood;        // Flood a broadcast belongs to, or null
+        ArrayList<Packet> answers;  // Queued at to once this one arrives, or null
+        boolean lost;
+
+        Packet(PacketType type, Node[] hops, double created) {
+            this.type = type;
+            this.hops = hops;
+            this.created = created;
+        }
+    }
+
+    // A broadcast that the relays forward once, the first time they hear it
+    private static class Flood {
+        Set<Node> relays;
+        HashSet<Node> seen = new HashSet<Node>();
+
+        Flood(Set<Node> relays) { this.relays = relays; }
+    }
+
+    private class NodeQueue {
+        Node node;
+        ArrayDeque<Packet> packets = new ArrayDeque<Packet>();
+        boolean busy;
+
+        NodeQueue(Node node) { this.node = node; }
+    }
+
+    private Simulation sim;
+    private Manet network;
+    private ManetWrapper protocol;
+    private double transmission_delay;
+    private double propagation_delay;
+    private int queue_capacity;
+    private HashMap<Node, NodeQueue> queues;
+
+    // While inject() runs the protocol: the last packet each node sent to
+    // each neighbor, which the packets answering it wait for
+    private HashMap<Node, HashMap<Node, Packet>> last_sent;
+    private Node route_source;
+    // The packet the source of inject() waits for to have a route, if any
+    private Packet route_packet;
+
+    // Metrics
+    private long injected;
+    private long delivered;
+    private long[] transmitted;
+    private long[] dropped;
+    private double total_latency;
+    private double max_latency;
+    private long total_queue_length;
+    private long num_enqueued;
+    private int max_queue_length;
+
+
+    /**
+     * Constructor PacketSimulation(network, protocol, transmission_delay,
+     * 	propagation_delay)
+     * 	Same as below, with queues that never drop a packet.
+     */
+    public PacketSimulation(Manet network, ManetWrapper protocol,
+            double transmission_delay, double propagation_delay) {
+        this(network, protocol, transmission_delay, propagation_delay, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Constructor PacketSimulation(network, protocol, transmission_delay,
+     * 	propagation_delay, queue_capacity)
+     *
+     * @param network - Manet the protocol runs on
+     * @param protocol - ManetWrapper giving the paths and control packets
+     * @param transmission_delay - time a node takes to send one packet
+     * @param propagation_delay - time a packet takes per unit of distance
+     * @param queue_capacity - packets a node can hold, more are dropped
+     */
+    public PacketSimulation(Manet network, ManetWrapper protocol,
+            double transmission_delay, double propagation_delay, int queue_capacity) {
+        this.sim = new Simulation();
+        this.network = network;
+        this.protocol = protocol;
+        this.transmission_delay = transmission_delay;
+        this.propagation_delay = propagation_delay;
+        this.queue_capacity = queue_capacity;
+        this.queues = new HashMap<Node, NodeQueue>();
+
+        this.transmitted = new long[PacketType.values().length];
+        this.dropped = new long[PacketType.values().length];
+    }
+
+
+    /**
+     * send(time, source, destination)
+     * 	Schedules a data packet. The protocol is asked for its path when
+     * 	the packet is sent, so route discovery happens at that time.
+     */
+    public void send(double time, final Node source, final Node destination) {
+        sim.doAt(time, new Event() {
+            public void perform() {
+                inject(source, destination);
+            }
+        });
+    }
+
+
+    /**
+     * generateTraffic(num_packets, mean_interval, seed)
+     * 	Schedules data packets between random nodes, with exponential times
+     * 	between them. The nodes are the closest ones to random points,
+     * 	picked when each packet is sent. The same seed gives the same
+     * 	traffic whatever the protocol.
+     */
+    public void generateTraffic(int num_packets, double mean_interval, long seed) {
+        final Random prng = new Random(seed);
+        double time = sim.time();
+
+        for (int k = 0; k < num_packets; k++) {
+            time += -mean_interval * Math.log(1.0 - prng.nextDouble());
+            sim.doAt(time, new Event() {
+                public void perform() {
+                    inject(randomNode(prng), randomNode(prng));
+                }
+            });
+        }
+    }
+
+    private Node randomNode(Random prng) {
+        double x = (prng.nextDouble() * network.WORLD_LIMIT) - (network.WORLD_LIMIT / 2);
+        double y = (prng.nextDouble() * network.WORLD_LIMIT) - (network.WORLD_LIMIT / 2);
+        return network.closestNode(x, y);
+    }
+
+
+    /**
+     * startHellos(interval, until)
+     * 	Every node of the network broadcasts a HELLO every interval, with
+     * 	the first ones spread over one interval, up to time until.
+     */
+    public void startHellos(final double interval, final double until) {
+        int size = network.size();
+        int k = 0;
+
+        for (final Node node : network.getGraph()) {
+            double first = sim.time() + interval * k / size;
+            k++;
+            if (first > until) {
+                continue;
+            }
+
+            sim.doAt(first, new Event() {
+                public void perform() {
+                    if (!network.getGraph().contains(node)) {
+                        return;
+                    }
+                    enqueue(node, new Packet(PacketType.HELLO, null, time()));
+                    if (time() + interval <= until) {
+                        doAfter(interval, this);
+                    }
+                }
+            });
+        }
+    }
+
+
+    /**
+     * startTCs(interval, until)
+     * 	With OLSR, every MPR floods a TC every interval, with the first ones
+     * 	spread over one interval, up to time until. Each MPR forwards a TC
+     * 	the first time it hears it, as floodTopology() counts them, but hop
+     * 	by hop. Nothing is sent with another protocol.
+     */
+    public void startTCs(final double interval, final double until) {
+        if (!(protocol instanceof OLSRWrapper)) {
+            return;
+        }
+        final Set<Node> mprs = ((OLSRWrapper) protocol).getMPRSet();
+        int size = network.size();
+        int k = 0;
+
+        for (final Node node : network.getGraph()) {
+            double first = sim.time() + interval * k / size;
+            k++;
+            if (first > until) {
+                continue;
+            }
+
+            sim.doAt(first, new Event() {
+                public void perform() {
+                    if (!network.getGraph().contains(node)) {
+                        return;
+                    }
+                    if (mprs.contains(node)) {
+                        Packet packet = new Packet(PacketType.TC, null, time());
+                        packet.flood = new Flood(mprs);
+                        packet.flood.seen.add(node);
+                        enqueue(node, packet);
+                    }
+                    if (time() + interval <= until) {
+                        doAfter(interval, this);
+                    }
+                }
+            });
+        }
+    }
+
+
+    /**
+     * run()
+     * 	Runs the simulation until no event is left. The protocol reports
+     * 	its packets to the simulation only for that time.
+     */
+    public void run() {
+        protocol.setPacketListener(this);
+        try {
+            sim.run();
+        } finally {
+            protocol.setPacketListener(null);
+        }
+    }
+
+
+    // Control packets from the protocol are queued at the sender
+    public void packetSent(PacketType type, Node node) {
+        enqueue(node, new Packet(type, null, sim.time()));
+    }
+
+    // unless they answer a packet sent during the same inject()
+    public void packetSent(PacketType type, Node node, Node to, Node cause) {
+        Packet packet = new Packet(type, null, sim.time());
+        packet.to = to;
+
+        if (last_sent == null) {
+            enqueue(node, packet);
+            return;
+        }
+
+        HashMap<Node, Packet> sent = last_sent.get(node);
+        if (sent == null) {
+            sent = new HashMap<Node, Packet>();
+            last_sent.put(node, sent);
+        }
+        sent.put(to, packet);
+
+        sent = (cause == null) ? null : last_sent.get(cause);
+        Packet answered = (sent == null) ? null : sent.get(node);
+        if (answered == null) {
+            enqueue(node, packet);
+            return;
+        }
+        answer(answered, packet);
+        if (node == route_source) {
+            route_packet = answered;
+        }
+    }
+
+
+    private void inject(Node source, Node destination) {
+        injected++;
+
+        if (source == destination) {
+            delivered++;
+            return;
+        }
+
+        // The packets of a route discovery wait for the ones they answer
+        last_sent = new HashMap<Node, HashMap<Node, Packet>>();
+        route_source = source;
+        route_packet = null;
+        LinkedList<Node> path;
+        try {
+            path = protocol.ping(source, destination);
+        } finally {
+            last_sent = null;
+        }
+
+        if (path == null || path.size() < 2) {
+            dropped[PacketType.DATA.ordinal()]++;
+            return;
+        }
+
+        // The path starts with null and leaves out the destination
+        Node[] hops = new Node[path.size()];
+        int i = 0;
+        for (Node hop : path) {
+            if (hop != null) { hops[i++] = hop; }
+        }
+        hops[i] = destination;
+
+        // Held until the source has a route, if it had to find one
+        Packet packet = new Packet(PacketType.DATA, hops, sim.time());
+        if (route_packet != null) {
+            answer(route_packet, packet);
+        } else {
+            enqueue(source, packet);
+        }
+    }
+
+
+    private void answer(Packet answered, Packet packet) {
+        if (answered.lost) {
+            drop(packet);
+            return;
+        }
+        if (answered.answers == null) {
+            answered.answers = new ArrayList<Packet>();
+        }
+        answered.answers.add(packet);
+    }
+
+
+    // A lost packet takes the packets waiting for it along
+    private void drop(Packet packet) {
+        dropped[packet.type.ordinal()]++;
+        packet.lost = true;
+        if (packet.answers != null) {
+            for (Packet answer : packet.answers) {
+                drop(answer);
+            }
+        }
+    }
+
+
+    private void enqueue(Node node, Packet packet) {
+        NodeQueue queue = queues.get(node);
+        if (queue == null) {
+            queue = new NodeQueue(node);
+            queues.put(node, queue);
+        }
+
+        if (queue.packets.size() >= queue_capacity) {
+            drop(packet);
+            return;
+        }
+
+        total_queue_length += queue.packets.size();
+        num_enqueued++;
+        queue.packets.add(packet);
+        max_queue_length = Math.max(max_queue_length, queue.packets.size());
+
+        if (!queue.busy) {
+            transmitNext(queue);
+        }
+    }
+
+
+    private void transmitNext(final NodeQueue queue) {
+        queue.busy = true;
+        sim.doAfter(transmission_delay, new Event() {
+            public void perform() {
+                Packet packet = queue.packets.removeFirst();
+                transmitted[packet.type.ordinal()]++;
+
+                if (packet.type == PacketType.DATA) {
+                    forward(queue.node, packet);
+                } else if (packet.to != null) {
+                    deliver(queue.node, packet);
+                } else if (packet.flood != null) {
+                    broadcast(queue.node, packet);
+                }
+
+                if (queue.packets.isEmpty()) {
+                    queue.busy = false;
+                } else {
+                    transmitNext(queue);
+                }
+            }
+        });
+    }
+
+
+    // Sends a data packet over the link to its next hop
+    private void forward(Node from, final Packet packet) {
+        final Node next = packet.hops[packet.hop + 1];
+
+        // The link can be gone by the time the packet gets its turn
+        if (!network.getGraph().contains(next) || !from.hasNeighbor(next)) {
+            dropped[PacketType.DATA.ordinal()]++;
+            return;
+        }
+
+        double distance = Math.hypot(from.getX() - next.getX(), from.getY() - next.getY());
+        sim.doAfter(propagation_delay * distance, new Event() {
+            public void perform() {
+                packet.hop++;
+                if (packet.hop == packet.hops.length - 1) {
+                    double latency = time() - packet.created;
+                    delivered++;
+                    total_latency += latency;
+                    max_latency = Math.max(max_latency, latency);
+                } else {
+                    enqueue(next, packet);
+                }
+            }
+        });
+    }
+
+
+    // Sends a control packet over the link to its neighbor, where the
+    // packets answering it are queued
+    private void deliver(Node from, final Packet packet) {
+        final Node next = packet.to;
+        if (!network.getGraph().contains(next) || !from.hasNeighbor(next)) {
+            drop(packet);
+            return;
+        }
+        if (packet.answers == null) {
+            return;
+        }
+
+        double distance = Math.hypot(from.getX() - next.getX(), from.getY() - next.getY());
+        sim.doAfter(propagation_delay * distance, new Event() {
+            public void perform() {
+                for (Packet answer : packet.answers) {
+                    enqueue(next, answer);
+                }
+            }
+        });
+    }
+
+
+    // Every neighbor hears a flooded packet, and the relays that had not
+    // heard it yet send it on
+    private void broadcast(Node from, final Packet packet) {
+        for (int i = 0; i < from.numNeighbors(); i++) {
+            final Node next = from.getNeighbor(i);
+            double distance = Math.hypot(from.getX() - next.getX(), from.getY() - next.getY());
+            sim.doAfter(propagation_delay * distance, new Event() {
+                public void perform() {
+                    Flood flood = packet.flood;
+                    if (flood.seen.add(next) && flood.relays.contains(next)
+                            && network.getGraph().contains(next)) {
+                        Packet relayed = new Packet(packet.type, null, packet.created);
+                        relayed.flood = flood;
+                        enqueue(next, relayed);
+                    }
+                }
+            });
+        }
+    }
+
+
+    public double getTime() { return this.sim.time(); }
+    public long getInjected() { return this.injected; }
+    public long getDelivered() { return this.delivered; }
+    public long getTransmitted(PacketType type) { return this.transmitted[type.ordinal()]; }
+    public long getDropped(PacketType type) { return this.dropped[type.ordinal()]; }
+    public int getMaxQueueLength() { return this.max_queue_length; }
+    public double getMaxLatency() { return this.max_latency; }
+
+    public double getDeliveryRatio() {
+        return injected == 0 ? 1.0 : (double) delivered / injected;
+    }
+
+    // Latency of the delivered data packets, from send to arrival
+    public double getMeanLatency() {
+        return delivered == 0 ? 0.0 : total_latency / delivered;
+    }
+
+    // Packets found waiting by a packet joining a queue, on average
+    public double getMeanQueueLength() {
+        return num_enqueued == 0 ? 0.0 : (double) total_queue_length / num_enqueued;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,11 @@
+/**
+ * PacketType - the kinds of packets the protocols send.
+ * 	DATA - a ping from a source to a destination
+ * 	HELLO - neighbor discovery beacon
+ * 	TC - OLSR Topology Control packet
+ * 	QRY - TORA Query packet
+ * 	UPD - TORA Update packet
+ */
+public enum PacketType {
+    DATA, HELLO, TC, QRY, UPD
+}
\ No newline at end of file
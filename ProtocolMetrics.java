@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+
+/**
+ * ProtocolMetrics - what a routing protocol costs, both to the simulated
+ * 	network and to the simulator itself.
+ *
+ * Network cost: packets sent and received per PacketType, the highest
+ * 	number of packets received by a single node, and a histogram of the
+ * 	hops of every ping.
+ * Simulator cost: wall clock time and calls per protocol routine, a
+ * 	routine being registered once by name and then timed by its index.
+ *
+ * Everything is kept in primitive counters and fixed buckets, so recording
+ * 	is cheap enough to leave on. snapshot() copies the counters at any
+ * 	point, clear() starts them over.
+ */
+public class ProtocolMetrics {
+
+    // Pings of more hops than this all land in the last bucket
+    public static final int MAX_PATH_LENGTH = 64;
+
+    private long[] sent;
+    private long[] received;
+
+    // Packets received per node, and the highest count seen since clear()
+    private NodeCounter load;
+    private int max_load;
+
+    private long[] path_lengths;
+    private long unreachable;
+
+    private String[] routine_names;
+    private long[] routine_nanos;
+    private long[] routine_calls;
+    private int num_routines;
+
+
+    /**
+     * Constructor ProtocolMetrics(graph)
+     *
+     * @param graph - NodeTable whose ids index the per-node load
+     */
+    public ProtocolMetrics(NodeTable graph) {
+        this(new NodeCounter(graph));
+    }
+
+    private ProtocolMetrics(NodeCounter load) {
+        this.sent = new long[PacketType.values().length];
+        this.received = new long[PacketType.values().length];
+        this.load = load;
+        this.path_lengths = new long[MAX_PATH_LENGTH + 1];
+
+        this.routine_names = new String[8];
+        this.routine_nanos = new long[8];
+        this.routine_calls = new long[8];
+    }
+
+
+    /**
+     * routine(name)
+     * 	Registers a routine to time, once, when the protocol is built.
+     *
+     * @return index to pass to time()
+     */
+    public int routine(String name) {
+        if (num_routines == routine_names.length) {
+            routine_names = Arrays.copyOf(routine_names, num_routines * 2);
+            routine_nanos = Arrays.copyOf(routine_nanos, num_routines * 2);
+            routine_calls = Arrays.copyOf(routine_calls, num_routines * 2);
+        }
+        routine_names[num_routines] = name;
+        return num_routines++;
+    }
+
+    /**
+     * time(routine, start)
+     * 	Adds the time since start, a System.nanoTime(), to a routine.
+     * 	A routine called from another one counts in both.
+     */
+    public void time(int routine, long start) {
+        routine_nanos[routine] += System.nanoTime() - start;
+        routine_calls[routine]++;
+    }
+
+
+    public void sent(PacketType type, int amount) {
+        sent[type.ordinal()] += amount;
+    }
+
+    public void received(PacketType type, Node node, int amount) {
+        received[type.ordinal()] += amount;
+
+        load.add(node, amount);
+        max_load = Math.max(max_load, load.get(node));
+    }
+
+
+    /**
+     * path(hops)
+     * 	Counts a ping that got through, -1 hops for one that did not.
+     */
+    public void path(int hops) {
+        if (hops < 0) {
+            unreachable++;
+        } else {
+            path_lengths[Math.min(hops, MAX_PATH_LENGTH)]++;
+        }
+    }
+
+
+    /**
+     * move(from, to)
+     * 	Follows a swap-remove in the NodeTable, see NodeCounter.move().
+     */
+    public void move(int from, int to) {
+        load.move(from, to);
+    }
+
+
+    /**
+     * bind(topology)
+     * 	Keeps the load per node by the indexes of a Topology, or by ids
+     * 	again when null, see NodeCounter.bind().
+     */
+    public void bind(Topology topology) {
+        load.bind(topology);
+    }
+
+
+    /**
+     * clear()
+     * 	Zeroes every counter. Registered routines stay registered.
+     */
+    public void clear() {
+        Arrays.fill(sent, 0);
+        Arrays.fill(received, 0);
+        load.clear();
+        max_load = 0;
+        Arrays.fill(path_lengths, 0);
+        unreachable = 0;
+        Arrays.fill(routine_nanos, 0);
+        Arrays.fill(routine_calls, 0);
+    }
+
+
+    /**
+     * context()
+     * 	An empty ProtocolMetrics with the same routines registered, to count
+     * 	a trial apart from these. Like NodeCounter.context(), any thread
+     * 	can make one.
+     */
+    public ProtocolMetrics context() {
+        ProtocolMetrics context = new ProtocolMetrics(this.load.context());
+        for (int routine = 0; routine < this.num_routines; routine++) {
+            context.routine(this.routine_names[routine]);
+        }
+        return context;
+    }
+
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+
+    /**
+     * Snapshot - an immutable copy of the counters at one point.
+     */
+    public static final class Snapshot {
+
+        private final long[] sent;
+        private final long[] received;
+        private final int max_load;
+        private final long[] path_lengths;
+        private final long unreachable;
+        private final String[] routine_names;
+        private final long[] routine_nanos;
+        private final long[] routine_calls;
+
+        private Snapshot(ProtocolMetrics metrics) {
+            this.sent = metrics.sent.clone();
+            this.received = metrics.received.clone();
+            this.max_load = metrics.max_load;
+            this.path_lengths = metrics.path_lengths.clone();
+            this.unreachable = metrics.unreachable;
+            this.routine_names = Arrays.copyOf(metrics.routine_names, metrics.num_routines);
+            this.routine_nanos = Arrays.copyOf(metrics.routine_nanos, metrics.num_routines);
+            this.routine_calls = Arrays.copyOf(metrics.routine_calls, metrics.num_routines);
+        }
+
+        public long getSent(PacketType type) { return this.sent[type.ordinal()]; }
+        public long getReceived(PacketType type) { return this.received[type.ordinal()]; }
+        public int getMaxLoad() { return this.max_load; }
+        public long getUnreachable() { return this.unreachable; }
+
+        public long getTotalSent() { return sum(this.sent); }
+        public long getTotalReceived() { return sum(this.received); }
+
+        // Pings per number of hops, the last bucket holds the longer ones
+        public long[] getPathLengths() { return this.path_lengths.clone(); }
+
+        public long getPings() { return sum(this.path_lengths) + this.unreachable; }
+
+        public double getMeanPathLength() {
+            long pings = sum(this.path_lengths);
+            long hops = 0;
+            for (int i = 0; i < this.path_lengths.length; i++) {
+                hops += i * this.path_lengths[i];
+            }
+            return pings == 0 ? 0.0 : (double) hops / pings;
+        }
+
+        public int numRoutines() { return this.routine_names.length; }
+        public String getRoutineName(int routine) { return this.routine_names[routine]; }
+        public long getRoutineNanos(int routine) { return this.routine_nanos[routine]; }
+        public long getRoutineCalls(int routine) { return this.routine_calls[routine]; }
+
+        private static long sum(long[] values) {
+            long total = 0;
+            for (long value : values) {
+                total += value;
+            }
+            return total;
+        }
+
+
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%-8s %12s %12s%n", "Packet", "Sent", "Received"));
+            for (PacketType type : PacketType.values()) {
+                text.append(String.format("%-8s %12d %12d%n", type, getSent(type), getReceived(type)));
+            }
+            text.append(String.format("Max load: %d   Pings: %d   Unreachable: %d   Mean hops: %.2f%n",
+                    max_load, getPings(), unreachable, getMeanPathLength()));
+
+            text.append(String.format("%-20s %12s %12s%n", "Routine", "Calls", "ms"));
+            for (int routine = 0; routine < numRoutines(); routine++) {
+                text.append(String.format("%-20s %12d %12.3f%n", routine_names[routine],
+                        routine_calls[routine], routine_nanos[routine] / 1e6));
+            }
+            return text.toString();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+/**
+ * RandomDirectionMobility - the random direction model.
+ * 	A node picks a random direction and speed and moves straight until it
+ * 	hits the edge of the world. There it waits for the pause time, then
+ * 	picks a new direction, away from that edge.
+ */
+public class RandomDirectionMobility extends Mobility {
+
+    // Layout of the state of a node
+    private static final int DIRECTION_X = 0, DIRECTION_Y = 1, SPEED = 2, PAUSE = 3;
+
+
+    public RandomDirectionMobility(Manet network, long prng_seed,
+            double min_speed, double max_speed, double pause_time) {
+        super(network, prng_seed, min_speed, max_speed, pause_time);
+    }
+
+
+    protected double[] start(Node node) {
+        double angle = this.prng.nextDouble() * 2 * Math.PI;
+        return new double[] { Math.cos(angle), Math.sin(angle), randomSpeed(), 0.0 };
+    }
+
+
+    protected void advance(double[] state, double[] position, double dt) {
+        // Waiting at the edge it reached
+        if (state[PAUSE] > 0) {
+            state[PAUSE] -= dt;
+            return;
+        }
+
+        double step = state[SPEED] * dt;
+        double x = position[0] + state[DIRECTION_X] * step;
+        double y = position[1] + state[DIRECTION_Y] * step;
+        position[0] = clamp(x);
+        position[1] = clamp(y);
+
+        if (position[0] == x && position[1] == y) {
+            return;
+        }
+
+        // Hit an edge, the next direction points back into the world
+        double angle = this.prng.nextDouble() * 2 * Math.PI;
+        double direction_x = Math.cos(angle);
+        double direction_y = Math.sin(angle);
+        if (position[0] != x) {
+            direction_x = -Math.signum(x) * Math.abs(direction_x);
+        }
+        if (position[1] != y) {
+            direction_y = -Math.signum(y) * Math.abs(direction_y);
+        }
+
+        state[DIRECTION_X] = direction_x;
+        state[DIRECTION_Y] = direction_y;
+        state[SPEED] = randomSpeed();
+        state[PAUSE] = this.pause_time;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,49 @@
+/**
+ * RandomWaypointMobility - the random waypoint model.
+ * 	A node picks a random point of the world and a random speed, moves
+ * 	there in a straight line, waits for the pause time, and starts over.
+ */
+public class RandomWaypointMobility extends Mobility {
+
+    // Layout of the state of a node
+    private static final int WAYPOINT_X = 0, WAYPOINT_Y = 1, SPEED = 2, PAUSE = 3;
+
+
+    public RandomWaypointMobility(Manet network, long prng_seed,
+            double min_speed, double max_speed, double pause_time) {
+        super(network, prng_seed, min_speed, max_speed, pause_time);
+    }
+
+
+    protected double[] start(Node node) {
+        return new double[] { randomCoordinate(), randomCoordinate(), randomSpeed(), 0.0 };
+    }
+
+
+    protected void advance(double[] state, double[] position, double dt) {
+        // Waiting at the waypoint it reached
+        if (state[PAUSE] > 0) {
+            state[PAUSE] -= dt;
+            return;
+        }
+
+        double dx = state[WAYPOINT_X] - position[0];
+        double dy = state[WAYPOINT_Y] - position[1];
+        double distance = Math.hypot(dx, dy);
+        double step = state[SPEED] * dt;
+
+        if (step < distance) {
+            position[0] += dx / distance * step;
+            position[1] += dy / distance * step;
+            return;
+        }
+
+        // Reached the waypoint, the next one is used after the pause
+        position[0] = state[WAYPOINT_X];
+        position[1] = state[WAYPOINT_Y];
+        state[WAYPOINT_X] = randomCoordinate();
+        state[WAYPOINT_Y] = randomCoordinate();
+        state[SPEED] = randomSpeed();
+        state[PAUSE] = this.pause_time;
+    }
+}
\ No newline at end of file
@@ -1,6 +1,13 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.Map;
+import java.util.List;
 
 
 /**
@@ -8,27 +15,55 @@ import java.util.Map;
  * 	Temporally Ordered Routing Algorithm (TORA) for a Mobile Ad-Hoc network 
  * 	(MANET).
  *
- * The TORA algorithm creates a Directed Acyclical Graph represented by:
- * 	listofLists. This structure is used to record the paths between a 
- * 	source and destination node when called with ping().
+ * The TORA algorithm keeps a Directed Acyclical Graph per destination, by
+ * 	giving each node a height (tau, oid, r, delta, id) towards it. Links
+ * 	point from the higher to the lower node, and a packet follows them
+ * 	down to the destination, whose height is the lowest.
+ * 	Heights are created on demand by ping(), and repaired locally with
+ * 	link reversals when a node leaves the network. Only the DAGs in which
+ * 	the lost node or its neighbors hold a height are repaired, and the
+ * 	least recently pinged DAGs are dropped once too many heights are kept.
  * 
  * TORAWrapper also simulates the control packets that are sent between 
  * 	nodes:
  * 	Query Packets - sent from Src to find Dst
- * 	Update Packets - sent from Dst back to Src
+ * 	Update Packets - sent from Dst back to Src, and on every height change
  *
  */
 public class TORAWrapper extends ManetWrapper {
 	
-	// The following Maps are used to store the number of overhead packets
+	// The following counters are used to store the number of overhead packets
 	//	used by each node. Keeps both send & received packets.
-    HashMap<Node, Integer> QRY_sent_counter;
-    HashMap<Node, Integer> QRY_rec_counter;
-    HashMap<Node, Integer> UPD_sent_counter;
-    HashMap<Node, Integer> UPD_rec_counter;
+	//	They are indexed by node id and keep a running total.
+    NodeCounter QRY_sent_counter;
+    NodeCounter QRY_rec_counter;
+    NodeCounter UPD_sent_counter;
+    NodeCounter UPD_rec_counter;
     
-    //Internal Directed Acyclical Graph (DAG) structure
-    LinkedList<LinkedList<Node>> listOfPaths;
+    //Heights of the nodes towards each destination that has been pinged,
+    //	least recently pinged first
+    LinkedHashMap<Node, Dag> dags;
+    //The DAGs each node holds a height in, and how many heights there are
+    HashMap<Node, LinkedHashSet<Dag>> holders;
+    long num_heights;
+
+    //At most this many heights are kept, about 128 bytes each with the
+    //	index. Least recently pinged DAGs go first, like OLSR's tables.
+    static final long MAX_HEIGHTS = 1 << 20;
+
+    //Stable ids for the oid and id fields of heights, indexed by node id.
+    //	Node ids move when nodes are removed, the order of heights must not.
+    int[] serials;
+    int next_serial;
+
+    //Logical time, ticks for every new reference level
+    long clock;
+
+    //Routines timed in the metrics
+    private final int ping_routine = metrics.routine("ping");
+    private final int create_routine = metrics.routine("createRoute");
+    private final int maintain_routine = metrics.routine("maintainRoutes");
+    private final int callback_routine = metrics.routine("callbacks");
 	
     /**
      * TORAWrapper(network, ping_seed)
@@ -40,130 +75,618 @@ public class TORAWrapper extends ManetWrapper {
     public TORAWrapper(Manet network, long ping_seed) {
     	super(network, ping_seed);
     	
-    	this.QRY_sent_counter = new HashMap<Node, Integer>();
-    	this.QRY_rec_counter = new HashMap<Node, Integer>();
-    	this.UPD_sent_counter = new HashMap<Node, Integer>();
-    	this.UPD_rec_counter = new HashMap<Node, Integer>();
-    	
-    	this.listOfPaths = new LinkedList<LinkedList<Node>>();
+    	this.QRY_sent_counter = counter();
+    	this.QRY_rec_counter = counter();
+    	this.UPD_sent_counter = counter();
+    	this.UPD_rec_counter = counter();
     	
+    	this.dags = new LinkedHashMap<Node, Dag>(16, 0.75f, true);
+    	this.holders = new HashMap<Node, LinkedHashSet<Dag>>();
+    	this.num_heights = 0;
+    	this.serials = new int[Math.max(16, network.getGraph().size())];
+    	this.next_serial = 0;
+    	this.clock = 0;
     }
 
+
+    /**
+     * Height - the height of a node towards one destination.
+     * 	(tau, oid, r) is the reference level: the time it was created, the
+     * 	node that created it and whether it was reflected.
+     * 	delta orders the nodes within a reference level, and id breaks ties.
+     */
+    static final class Height implements Comparable<Height> {
+        final long tau;
+        final int oid;
+        final int r;
+        final int delta;
+        final int id;
+
+        Height(long tau, int oid, int r, int delta, int id) {
+            this.tau = tau;
+            this.oid = oid;
+            this.r = r;
+            this.delta = delta;
+            this.id = id;
+        }
+
+        int compareReference(Height other) {
+            if (tau != other.tau) { return Long.compare(tau, other.tau); }
+            if (oid != other.oid) { return Integer.compare(oid, other.oid); }
+            return Integer.compare(r, other.r);
+        }
+
+        public int compareTo(Height other) {
+            int reference = compareReference(other);
+            if (reference != 0) { return reference; }
+            if (delta != other.delta) { return Integer.compare(delta, other.delta); }
+            return Integer.compare(id, other.id);
+        }
+    }
+
+
+    /**
+     * Dag - the heights towards one destination, kept only for the nodes
+     * 	that have one, in an open addressing table keyed by node id. A null
+     * 	height means the node has no route to the destination.
+     * 	set() keeps the holders index and the height count of the wrapper
+     * 	up to date, move() follows a swap-remove like NodeCounter.move().
+     */
+    final class Dag {
+        final Node destination;
+        // Node id + 1 of each slot, 0 for a free one
+        private int[] keys = new int[8];
+        private Node[] nodes = new Node[8];
+        private Height[] heights = new Height[8];
+        private int size = 0;
+
+        Dag(Node destination) { this.destination = destination; }
+
+        Height get(Node node) { return get(node.getId()); }
+
+        Height get(int id) {
+            int slot = find(id);
+            return (slot < 0) ? null : heights[slot];
+        }
+
+        void set(Node node, Height height) {
+            int slot = find(node.getId());
+            if (slot >= 0) {
+                if (height != null) {
+                    heights[slot] = height;
+                } else {
+                    delete(slot);
+                    unhold(node);
+                    num_heights--;
+                }
+            } else if (height != null) {
+                insert(node.getId(), node, height);
+                LinkedHashSet<Dag> held = holders.get(node);
+                if (held == null) {
+                    held = new LinkedHashSet<Dag>();
+                    holders.put(node, held);
+                }
+                held.add(this);
+                num_heights++;
+            }
+        }
+
+        // The node that had id from now has id to, which held no height
+        void move(int from, int to) {
+            int slot = find(from);
+            if (slot >= 0) {
+                Node node = nodes[slot];
+                Height height = heights[slot];
+                delete(slot);
+                insert(to, node, height);
+            }
+        }
+
+        // Drops every height, when the DAG itself is dropped
+        void clear() {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    unhold(nodes[slot]);
+                }
+            }
+            num_heights -= size;
+            keys = new int[8];
+            nodes = new Node[8];
+            heights = new Height[8];
+            size = 0;
+        }
+
+        private int find(int id) {
+            int mask = keys.length - 1;
+            for (int slot = hash(id) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == id + 1) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(int id, Node node, Height height) {
+            if (3 * (size + 1) > 2 * keys.length) {
+                int[] old_keys = keys;
+                Node[] old_nodes = nodes;
+                Height[] old_heights = heights;
+                keys = new int[old_keys.length * 2];
+                nodes = new Node[keys.length];
+                heights = new Height[keys.length];
+                size = 0;
+                for (int slot = 0; slot < old_keys.length; slot++) {
+                    if (old_keys[slot] != 0) {
+                        insert(old_keys[slot] - 1, old_nodes[slot], old_heights[slot]);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int slot = hash(id) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = id + 1;
+            nodes[slot] = node;
+            heights[slot] = height;
+            size++;
+        }
+
+        // Shifts the entries after the hole back, so no probe stops early
+        private void delete(int hole) {
+            int mask = keys.length - 1;
+            for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = hash(keys[next] - 1) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    nodes[hole] = nodes[next];
+                    heights[hole] = heights[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            nodes[hole] = null;
+            heights[hole] = null;
+            size--;
+        }
+
+        private void unhold(Node node) {
+            LinkedHashSet<Dag> held = holders.get(node);
+            held.remove(this);
+            if (held.isEmpty()) {
+                holders.remove(node);
+            }
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
     /**
      * ping(source, destination)
      * @param source - Node message ping sent from
      * @param destination - Node to receive the ping
      * 
-     * For the TORA algorithm ping() does most of the computing.
-     * 	In this function the DAG is created between the source
-     * 	and destination nodes.
-     * This function also calculates the overhead using both QRY
-     * 	and UPD packets.
+     * If the source has no height towards the destination yet, a route is
+     * 	created first with QRY and UPD packets, see createRoute().
+     * The ping then follows the DAG down from the source, always to the
+     * 	lowest neighbor, so a known destination costs O(path).
+     *
+     * @return path from the source, preceded by null and without the
+     * 	destination. Empty if the destination cannot be reached.
      */
     public LinkedList<Node> ping(Node source, Node destination) {
-    	HashMap<Node, Node> predecessors = new HashMap<Node, Node>();
-        LinkedList<Node> queue = new LinkedList<Node>();
-        LinkedList<Node> result = new LinkedList<>();
-        this.listOfPaths = new LinkedList<LinkedList<Node>>();
+        long start = System.nanoTime();
+        LinkedList<Node> path = route(source, destination);
+        metrics().time(ping_routine, start);
+        return recordPath(path, destination);
+    }
+
+    private LinkedList<Node> route(Node source, Node destination) {
+        LinkedList<Node> path = new LinkedList<Node>();
+        path.add(null);
+        if (source == destination) {
+            return path;
+        }
+
+        Dag dag = dagOf(destination);
+        if (dag.get(source) == null) {
+            long start = System.nanoTime();
+            createRoute(dag, source);
+            metrics().time(create_routine, start);
+            evictDags();
+        }
+        if (dag.get(source) == null) {
+            return new LinkedList<Node>();
+        }
+
+        Node current = source;
+        while (current != destination) {
+            path.add(current);
+            current = lowestNeighbor(dag, current);
+            if (current == null) {
+                System.out.println("Error - Could not reach destination.");
+                return new LinkedList<Node>();
+            }
+        }
+
+        //Return path from source to destination
+        return path;
+    }
+
+
+    /**
+     * createRoute(dag, source)
+     * 	Route creation: the source floods a QRY, which every node without a
+     * 	height forwards once. Nodes that already have a height (at least the
+     * 	destination) answer with an UPD instead. A node that forwarded the
+     * 	QRY takes the height of the first neighbor it hears an UPD from,
+     * 	one step further from the destination, and sends its own UPD.
+     * 	Each packet is reported with the node it answers, see
+     * 	PacketListener, so a simulation can send them hop by hop.
+     */
+    private void createRoute(Dag dag, Node source) {
+        NodeTable graph = this.network.getGraph();
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        ArrayList<Node> required = new ArrayList<Node>();
+        ArrayList<Node> answering = new ArrayList<Node>();
+        boolean[] seen = new boolean[graph.size()];
+        // The neighbor whose QRY, then whose UPD, a node answers
+        Node[] causes = new Node[graph.size()];
 
         queue.add(source);
-        predecessors.put(source, null);
-        
+        seen[source.getId()] = true;
+
         // The process of sending QRY packets matches is similar to a BFS
         while (!queue.isEmpty()) {
             Node current = queue.removeFirst();
-            
-            // Reached destination node?
-            if (current == destination) {
-                // For each path the destination node add to the DAG
-                this.listOfPaths.add(constructPath(predecessors, destination));
-            }
+            required.add(current);
 
             // Send QRY packet is broadcast to all neighboring nodes
-            if (current != null) {
-            	for (Node neighbor : current.getNeighbors()) {
+            for (int i = 0; i < current.numNeighbors(); i++) {
+                Node neighbor = current.getNeighbor(i);
+                sendQRY(current, neighbor, causes[current.getId()]);
 
-            		//Add QRY packet for each added neighbor
-            		incQRYSent(current);
-            		incQRYRec(neighbor);
+                // If a node already has QRY packet, drops new one 
+                if (seen[neighbor.getId()]) {
+                    continue;
+                }
+                seen[neighbor.getId()] = true;
+                causes[neighbor.getId()] = current;
 
-            		// If a node already has QRY packet, drops new one 
-            		if(predecessors.containsKey(neighbor)) {
-            			continue;
-            		}
+                if (dag.get(neighbor) != null) {
+                    answering.add(neighbor);
+                } else {
+                    queue.add(neighbor);
+                }
+            }
+        }
 
-            		//Get each node ready to send to it's own neighbors
-            		predecessors.put(neighbor, current);
-            		queue.add(neighbor);
+        // Nobody knows the destination, the nodes stay without a route
+        if (answering.isEmpty()) {
+            return;
+        }
+
+        // UPD packets spread back from the answering nodes
+        queue.addAll(answering);
+        while (!queue.isEmpty()) {
+            Node current = queue.removeFirst();
+            Height height = dag.get(current);
+            broadcastUPD(current, causes[current.getId()]);
 
-            	}
+            for (int i = 0; i < current.numNeighbors(); i++) {
+                Node neighbor = current.getNeighbor(i);
+                if (dag.get(neighbor) != null || !seen[neighbor.getId()]) {
+                    continue;
+                }
+                dag.set(neighbor, new Height(height.tau, height.oid, height.r,
+                        height.delta + 1, serialOf(neighbor)));
+                causes[neighbor.getId()] = current;
+                queue.add(neighbor);
             }
         }
-        
-        //Check to see if there is a path between Src and Dst
-        if ((this.listOfPaths != null) && (this.listOfPaths.size() != 0)) {
-        	
-        	//TORA provides multiple paths to a destination
-        	result = this.listOfPaths.getFirst();
-        	
-        	// shortest path is used when available
-        	int shortestLength = this.listOfPaths.get(0).size();
-        	for (LinkedList<Node> linkedList : this.listOfPaths) {
-				if (shortestLength > linkedList.size()) {
-					shortestLength = linkedList.size();
-					result = linkedList;
-				}
-			}
+    }
+
+
+    /**
+     * maintainRoutes(dag, lost)
+     * 	Link reversal after a node left: every node that lost its last
+     * 	downstream link picks a new height, which can take the downstream
+     * 	links of its neighbors in turn. Only the region around the removed
+     * 	node is visited.
+     * 	A node that lost its last link to the failure starts a new reference
+     * 	level. One that lost it to a neighbor's new height:
+     * 	- propagates the highest reference level among its neighbors,
+     * 	- reflects the reference level if all neighbors share it,
+     * 	- detects a partition if its own reflected level came back to it,
+     * 	  and clears the heights of the whole partition,
+     * 	- or starts a new reference level.
+     *
+     * @param lost - nodes that lost a link, the neighbors of the removed node
+     */
+    private void maintainRoutes(Dag dag, Collection<Node> lost) {
+        long start = System.nanoTime();
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        // The neighbor whose UPD a node answers, the node itself when it
+        // lost a link to the failure
+        ArrayDeque<Node> causes = new ArrayDeque<Node>();
+
+        for (Node node : lost) {
+            queue.add(node);
+            causes.add(node);
         }
-        
-        //Start link-reversal process, simulate backtracking UPD packets
-        for (Map.Entry<Node, Node> entry : predecessors.entrySet()) {
-        	if (entry.getValue() == null) {
-        		continue;
-        	}
-        	else {
-        		//Add UPD packets to overhead counters.
-        		incUPDSent(entry.getKey());
-        		incUPDRec(entry.getValue());
-        	}
+
+        while (!queue.isEmpty()) {
+            Node node = queue.removeFirst();
+            Node cause = causes.removeFirst();
+            boolean failure = (cause == node);
+            if (failure) {
+                cause = null;
+            }
+            Height height = dag.get(node);
+
+            if (node == dag.destination || height == null || lowestNeighbor(dag, node) != null) {
+                continue;
+            }
+
+            // Only the neighbors with a height take part
+            Height highest = null;
+            boolean same_reference = true;
+            for (int i = 0; i < node.numNeighbors(); i++) {
+                Height neighbor = dag.get(node.getNeighborId(i));
+                if (neighbor == null) { continue; }
+                if (highest != null && neighbor.compareReference(highest) != 0) {
+                    same_reference = false;
+                }
+                if (highest == null || neighbor.compareReference(highest) > 0) {
+                    highest = neighbor;
+                }
+            }
+
+            int serial = serialOf(node);
+            Height new_height;
+            if (highest == null) {
+                // No neighbor can route anymore
+                dag.set(node, null);
+                continue;
+            } else if (failure) {
+                new_height = new Height(++this.clock, serial, 0, 0, serial);
+            } else if (!same_reference) {
+                int delta = Integer.MAX_VALUE;
+                for (int i = 0; i < node.numNeighbors(); i++) {
+                    Height neighbor = dag.get(node.getNeighborId(i));
+                    if (neighbor != null && neighbor.compareReference(highest) == 0) {
+                        delta = Math.min(delta, neighbor.delta);
+                    }
+                }
+                new_height = new Height(highest.tau, highest.oid, highest.r, delta - 1, serial);
+            } else if (highest.r == 0) {
+                new_height = new Height(highest.tau, highest.oid, 1, 0, serial);
+            } else if (highest.oid == serial) {
+                clearPartition(dag, node, cause);
+                continue;
+            } else {
+                new_height = new Height(++this.clock, serial, 0, 0, serial);
+            }
+
+            dag.set(node, new_height);
+            broadcastUPD(node, cause);
+
+            // Neighbors for which the node was downstream and is not anymore
+            for (int i = 0; i < node.numNeighbors(); i++) {
+                Height neighbor = dag.get(node.getNeighborId(i));
+                if (neighbor != null && height.compareTo(neighbor) < 0 && new_height.compareTo(neighbor) > 0) {
+                    queue.add(node.getNeighbor(i));
+                    causes.add(node);
+                }
+            }
         }
+        metrics().time(maintain_routine, start);
+    }
 
-        //Return path from source to destination
+
+    /**
+     * clearPartition(dag, node, cause)
+     * 	Erases the heights of every node connected to a node that detected a
+     * 	partition. Each of them forwards the CLR packet once, and these are
+     * 	counted with the UPD packets.
+     *
+     * @param cause - node whose UPD made the node detect it, null if none
+     */
+    private void clearPartition(Dag dag, Node node, Node cause) {
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        ArrayDeque<Node> causes = new ArrayDeque<Node>();
+        queue.add(node);
+        causes.add(node);
+        dag.set(node, null);
+
+        while (!queue.isEmpty()) {
+            Node current = queue.removeFirst();
+            Node from = causes.removeFirst();
+            broadcastUPD(current, (current == node) ? cause : from);
+
+            for (int i = 0; i < current.numNeighbors(); i++) {
+                Node neighbor = current.getNeighbor(i);
+                if (dag.get(neighbor) != null) {
+                    dag.set(neighbor, null);
+                    queue.add(neighbor);
+                    causes.add(current);
+                }
+            }
+        }
+    }
+
+
+    // The neighbor with the lowest height below the node's, null if none
+    private Node lowestNeighbor(Dag dag, Node node) {
+        Height lowest = dag.get(node);
+        Node result = null;
+
+        for (int i = 0; i < node.numNeighbors(); i++) {
+            Height height = dag.get(node.getNeighborId(i));
+            if (height != null && height.compareTo(lowest) < 0) {
+                lowest = height;
+                result = node.getNeighbor(i);
+            }
+        }
         return result;
     }
 
 
+    // The heights towards a destination, which sits at the bottom of its DAG
+    private Dag dagOf(Node destination) {
+        Dag dag = this.dags.get(destination);
+        if (dag == null) {
+            dag = new Dag(destination);
+            int serial = serialOf(destination);
+            dag.set(destination, new Height(0, serial, 0, 0, serial));
+            this.dags.put(destination, dag);
+        }
+        return dag;
+    }
+
+
+    // Drops the least recently pinged DAGs while there are too many heights,
+    // the one pinged last always stays
+    private void evictDags() {
+        Iterator<Dag> eldest = this.dags.values().iterator();
+        while (this.num_heights > MAX_HEIGHTS && this.dags.size() > 1) {
+            Dag dag = eldest.next();
+            eldest.remove();
+            dag.clear();
+        }
+    }
+
+
+    // The DAGs the nodes hold a height in, the only ones a change around
+    // them can break, copied since the repairs change the holders
+    private LinkedHashSet<Dag> heldBy(Node node, Collection<Node> nodes) {
+        LinkedHashSet<Dag> held = new LinkedHashSet<Dag>();
+        if (node != null && this.holders.containsKey(node)) {
+            held.addAll(this.holders.get(node));
+        }
+        for (Node other : nodes) {
+            if (this.holders.containsKey(other)) {
+                held.addAll(this.holders.get(other));
+            }
+        }
+        return held;
+    }
+
+
+    // Serials start at 1, 0 marks a node that has none yet
+    private int serialOf(Node node) {
+        int id = node.getId();
+        if (id >= this.serials.length) {
+            this.serials = Arrays.copyOf(this.serials, Math.max(id + 1, this.serials.length * 2));
+        }
+        if (this.serials[id] == 0) {
+            this.serials[id] = ++this.next_serial;
+        }
+        return this.serials[id];
+    }
+
+
+    // An UPD is broadcast, every neighbor receives it
+    private void broadcastUPD(Node node, Node cause) {
+        for (int i = 0; i < node.numNeighbors(); i++) {
+            Node neighbor = node.getNeighbor(i);
+            count(this.UPD_sent_counter, node, 1);
+            packetSent(PacketType.UPD, node, neighbor, cause);
+            incUPDRec(neighbor);
+        }
+    }
+
+    // A QRY from a node to one neighbor, forwarding the one from cause
+    private void sendQRY(Node node, Node neighbor, Node cause) {
+        count(this.QRY_sent_counter, node, 1);
+        packetSent(PacketType.QRY, node, neighbor, cause);
+        incQRYRec(neighbor);
+    }
+
+
     /**
-     * Path generation helper function, creates the path from destination to source
-     * 
-     * @param predecessors - HashMap<Node, Node> of linked nodes between Src & Dst
-     * @param destination - Node 
-     * @return LinkedList<Node> path from DST to Src
+     * pingTopology(topology, source, destination)
+     * 	Stateless variant over an immutable CSR snapshot: floods a QRY over
+     * 	the whole network and answers every QRY tree edge with a UPD,
+     * 	without keeping any heights. The shortest path is returned.
      */
-    private LinkedList<Node> constructPath(HashMap<Node, Node> predecessors, Node destination) {
-        Node current = destination;
-        LinkedList<Node> path = new LinkedList<Node>();
+    protected LinkedList<Node> pingTopology(Topology topology, Node source, Node destination) {
+        long start = System.nanoTime();
+        LinkedList<Node> path = route(topology, source, destination);
+        metrics().time(ping_routine, start);
+        return recordPath(path, destination);
+    }
+
+    private LinkedList<Node> route(Topology topology, Node source, Node destination) {
+        int[] offsets = topology.offsets();
+        int[] targets = topology.targets();
+
+        int[] queue = new int[topology.size()];
+        int[] predecessors = new int[topology.size()];
+        boolean[] reached = new boolean[topology.size()];
+        int head = 0;
+        int tail = 0;
 
-        while (current != null) {
-            current = predecessors.get(current);
-            path.push(current);
+        LinkedList<Node> result = new LinkedList<>();
+
+        int start = topology.indexOf(source);
+        int end = topology.indexOf(destination);
+
+        queue[tail++] = start;
+        predecessors[start] = -1;
+        reached[start] = true;
+
+        // Every node forwards the QRY once, so each node is dequeued once
+        while (head < tail) {
+            int current = queue[head++];
+            Node current_node = topology.getNode(current);
+
+            if (current == end) {
+                LinkedList<Node> path = new LinkedList<Node>();
+                for (int v = predecessors[end]; ; v = predecessors[v]) {
+                    path.push(v == -1 ? null : topology.getNode(v));
+                    if (v == -1) { break; }
+                }
+                result = path;
+            }
+
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int neighbor = targets[e];
+
+                incQRYSent(current_node);
+                incQRYRec(topology.getNode(neighbor));
+
+                if (reached[neighbor]) {
+                    continue;
+                }
+                reached[neighbor] = true;
+                predecessors[neighbor] = current;
+                queue[tail++] = neighbor;
+            }
         }
 
-        return path;
+        // Every QRY tree edge is answered with a UPD
+        for (int i = 1; i < tail; i++) {
+            int v = queue[i];
+            incUPDSent(topology.getNode(v));
+            incUPDRec(topology.getNode(predecessors[v]));
+        }
+
+        return result;
     }
-    
+
+
     /**
      * Helper function to increment a Nodes QRY_sent overhead by 1.
      * @param currentNode - node whose count to be incremented
      */
     public void incQRYSent(Node currentNode) {
-    	if (this.QRY_sent_counter.containsKey(currentNode)) {
-    		int tmp = this.QRY_sent_counter.get(currentNode) + 1;
-        	this.QRY_sent_counter.put(currentNode, tmp);
-    	}
-    	else {
-    		this.QRY_sent_counter.put(currentNode, 0);
-    	}
+    	count(this.QRY_sent_counter, currentNode, 1);
+    	packetSent(PacketType.QRY, currentNode);
     }
 
     
@@ -172,13 +695,8 @@ public class TORAWrapper extends ManetWrapper {
      * @param currentNode - node whose count to be incremented
      */
     public void incQRYRec(Node currentNode) {
-    	if (this.QRY_rec_counter.containsKey(currentNode)) {
-    		int tmp = this.QRY_rec_counter.get(currentNode) + 1;
-        	this.QRY_rec_counter.put(currentNode, tmp);
-    	}
-    	else {
-    		this.QRY_rec_counter.put(currentNode, 0);
-    	}
+    	count(this.QRY_rec_counter, currentNode, 1);
+    	packetReceived(PacketType.QRY, currentNode, 1);
     }
     
     
@@ -187,13 +705,8 @@ public class TORAWrapper extends ManetWrapper {
      * @param currentNode - node whose count to be incremented
      */
     public void incUPDSent(Node currentNode) {
-    	if (this.UPD_sent_counter.containsKey(currentNode)) {
-    		int tmp = this.UPD_sent_counter.get(currentNode) + 1;
-        	this.UPD_sent_counter.put(currentNode, tmp);
-    	}
-    	else {
-    		this.UPD_sent_counter.put(currentNode, 0);
-    	}
+    	count(this.UPD_sent_counter, currentNode, 1);
+    	packetSent(PacketType.UPD, currentNode);
     }
     
 
@@ -202,14 +715,8 @@ public class TORAWrapper extends ManetWrapper {
      * @param currentNode - node whose count to be incremented
      */
     public void incUPDRec(Node currentNode) {
-    	if (this.UPD_rec_counter.containsKey(currentNode)) {
-    		int tmp = this.UPD_rec_counter.get(currentNode) + 1;
-        	this.UPD_rec_counter.put(currentNode, tmp);
-    	}
-    	else {
-    		this.UPD_rec_counter.put(currentNode, 0);
-    	}
-    	
+    	count(this.UPD_rec_counter, currentNode, 1);
+    	packetReceived(PacketType.UPD, currentNode, 1);
     }
     
     
@@ -229,14 +736,7 @@ public class TORAWrapper extends ManetWrapper {
      * @return Integer
      */
     public int getQRYtotal() {
-    	int result = 0;
-    	
-    	//Add overhead for all current nodes
-    	for (Node key : this.QRY_rec_counter.keySet()) {
-			result += this.QRY_rec_counter.get(key);
-		}
-    	
-    	return result;
+    	return total(this.QRY_rec_counter);
     }
     
     
@@ -245,14 +745,7 @@ public class TORAWrapper extends ManetWrapper {
      * @return Integer
      */
     public int getUPDtotal() {
-    	int result = 0;
-
-    	//Add overhead for all current nodes
-    	for (Node key : this.UPD_rec_counter.keySet()) {
-			result += this.UPD_rec_counter.get(key);
-		}
-    	
-    	return result;
+    	return total(this.UPD_rec_counter);
     }
     
     
@@ -260,13 +753,7 @@ public class TORAWrapper extends ManetWrapper {
      * Clears all internal overhead counts for all nodes in the network
      */
     public void clearMetrics() {
-    	int zero = 0;
-    	for (Node key : this.UPD_rec_counter.keySet()) {
-			this.QRY_rec_counter.put(key, zero);
-			this.QRY_sent_counter.put(key, zero);
-			this.UPD_rec_counter.put(key, zero);
-			this.UPD_sent_counter.put(key, zero);
-		}
+    	clearCounters();
     }
 
 
@@ -279,19 +766,37 @@ public class TORAWrapper extends ManetWrapper {
      */
 	@Override
 	public void addNodeCallback(Node node) {
-		//Add node to Overhead counters
-		if (!this.QRY_sent_counter.containsKey(node)) {
-			this.QRY_sent_counter.put(node, 0);
-			this.QRY_rec_counter.put(node, 0);
-			this.UPD_sent_counter.put(node, 0);
-			this.UPD_rec_counter.put(node, 0);
-    	}
-    	
+		long start = System.nanoTime();
 		//UPD packets are used to communicate with a new node
-		for (Node neighbor : node.getNeighbors()) {
-			incUPDSent(neighbor);
+		for (int i = 0; i < node.numNeighbors(); i++) {
+			incUPDSent(node.getNeighbor(i));
 			incUPDRec(node);
-		}	
+		}
+		metrics().time(callback_routine, start);
+	}
+
+	
+	/**
+     * Called when a batch of nodes joins the network at once.
+     * 	Counts the same UPD packets as adding the nodes one at a time: each
+     * 	node hears from the neighbors that were already there when it joined,
+     * 	which are the ones with a smaller id.
+     * 
+     * @param nodes - List<Node> of new nodes, in the order they joined
+     */
+	@Override
+	public void addNodesCallback(List<Node> nodes) {
+		long start = System.nanoTime();
+		for (Node node : nodes) {
+			for (int i = 0; i < node.numNeighbors(); i++) {
+				Node neighbor = node.getNeighbor(i);
+				if (neighbor.getId() < node.getId()) {
+					incUPDSent(neighbor);
+					incUPDRec(node);
+				}
+			}
+		}
+		metrics().time(callback_routine, start);
 	}
 
 	
@@ -304,12 +809,96 @@ public class TORAWrapper extends ManetWrapper {
      */
 	@Override
 	public void removeNodeCallback(Node node) {
-		
+		long start = System.nanoTime();
+
+		//The last node of the network took over the id of the removed one
+		int last = this.network.getGraph().size();
+		this.metrics.move(last, node.getId());
+		this.QRY_sent_counter.move(last, node.getId());
+		this.QRY_rec_counter.move(last, node.getId());
+		this.UPD_sent_counter.move(last, node.getId());
+		this.UPD_rec_counter.move(last, node.getId());
+
+		//Serials follow the nodes the same way
+		if (node.getId() < this.serials.length) {
+			boolean moved = last != node.getId() && last < this.serials.length;
+			this.serials[node.getId()] = moved ? this.serials[last] : 0;
+		}
+		if (last < this.serials.length) {
+			this.serials[last] = 0;
+		}
+
 		//When a node is removed it either tells all neighboring nodes or
 		// they ask if it still exists. These packets are simulated as updates
-		for (Node neighbor : node.getNeighbors()) {
-			incUPDSent(neighbor);
+		for (int i = 0; i < node.numNeighbors(); i++) {
+			incUPDSent(node.getNeighbor(i));
 			incUPDRec(node);
 		}
+
+		//Routes to the removed node are gone, the others are repaired
+		//	where it or its neighbors hold a height
+		Dag gone = this.dags.remove(node);
+		if (gone != null) {
+			gone.clear();
+		}
+		Collection<Node> neighbors = node.getNeighbors();
+		LinkedHashSet<Dag> broken = heldBy(node, neighbors);
+		if (this.holders.containsKey(node)) {
+			for (Dag dag : new ArrayList<Dag>(this.holders.get(node))) {
+				dag.set(node, null);
+			}
+		}
+		if (last != node.getId() && this.holders.containsKey(this.network.getNode(node.getId()))) {
+			for (Dag dag : this.holders.get(this.network.getNode(node.getId()))) {
+				dag.move(last, node.getId());
+			}
+		}
+		for (Dag dag : broken) {
+			maintainRoutes(dag, neighbors);
+		}
+		metrics().time(callback_routine, start);
+	}
+
+
+	/**
+     * Called when two nodes moved out of range of each other.
+     * 	Both ends notice the lost link and tell their neighbors with an UPD,
+     * 	then every route that went over the link is repaired.
+     * 
+     * @param a - Node at one end of the link
+     * @param b - Node at the other end
+     */
+	@Override
+	public void linkDownCallback(Node a, Node b) {
+		long start = System.nanoTime();
+		incUPDSent(a);
+		incUPDRec(b);
+		incUPDSent(b);
+		incUPDRec(a);
+
+		List<Node> ends = Arrays.asList(a, b);
+		for (Dag dag : heldBy(null, ends)) {
+			maintainRoutes(dag, ends);
+		}
+		metrics().time(callback_routine, start);
+	}
+
+
+	/**
+     * Called when two nodes moved into range of each other.
+     * 	They exchange their heights with an UPD each, the new link is
+     * 	directed by them and no route has to change.
+     * 
+     * @param a - Node at one end of the link
+     * @param b - Node at the other end
+     */
+	@Override
+	public void linkUpCallback(Node a, Node b) {
+		long start = System.nanoTime();
+		incUPDSent(a);
+		incUPDRec(b);
+		incUPDSent(b);
+		incUPDRec(a);
+		metrics().time(callback_routine, start);
 	}
-}
+}
\ No newline at end of file
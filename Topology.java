@@ -0,0 +1,127 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Topology - an immutable snapshot of the links of a Manet, stored in
+ * 	compressed sparse row (CSR) form.
+ *
+ * The neighbors of the node with index v are
+ * 	targets[offsets[v]] up to targets[offsets[v + 1] - 1]
+ * 	Indexes are the Node ids at the time the snapshot was taken, and the
+ * 	snapshot is tagged with the version of the Manet it was taken from.
+ * 	Nodes are looked up by identity in an index of the snapshot's own,
+ * 	never by their ids, which the Manet renumbers as nodes leave.
+ *
+ * Read-only passes (BFS, pings) can run any number of times over one
+ * 	snapshot without touching the mutable Node and NodeTable structures.
+ * 	A protocol can attach state of its own that goes with the links, such
+ * 	as its MPRs, so readers on other threads get both from the same version.
+ */
+public final class Topology {
+
+    private final long version;
+    private final Node[] nodes;
+    private final int[] offsets;
+    private final int[] targets;
+    // Open addressing by identity, index + 1 of each node, 0 for empty
+    private final int[] slots;
+    private final ConcurrentHashMap<Object, Object> attachments;
+
+
+    /**
+     * Constructor Topology(graph, version)
+     * 	Copies the current links of every node in the table.
+     *
+     * @param graph - NodeTable of the Manet
+     * @param version - version of the Manet the snapshot is taken at
+     */
+    public Topology(NodeTable graph, long version) {
+        int size = graph.size();
+
+        this.version = version;
+        this.nodes = new Node[size];
+        this.offsets = new int[size + 1];
+        this.attachments = new ConcurrentHashMap<Object, Object>();
+
+        for (int v = 0; v < size; v++) {
+            nodes[v] = graph.get(v);
+            offsets[v + 1] = offsets[v] + nodes[v].numNeighbors();
+        }
+
+        this.targets = new int[offsets[size]];
+        for (int v = 0; v < size; v++) {
+            Node node = nodes[v];
+            for (int i = 0; i < node.numNeighbors(); i++) {
+                targets[offsets[v] + i] = node.getNeighborId(i);
+            }
+        }
+
+        // At most half full
+        this.slots = new int[Integer.highestOneBit(Math.max(1, size)) << 2];
+        int mask = slots.length - 1;
+        for (int v = 0; v < size; v++) {
+            int slot = hash(nodes[v]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = v + 1;
+        }
+    }
+
+
+    /**
+     * indexOf(node)
+     * 	Looks the node up in the index of the snapshot, so it is safe while
+     * 	the Manet changes and renumbers nodes on another thread.
+     *
+     * @return index of the node in this snapshot, -1 if it is not in it
+     */
+    public int indexOf(Node node) {
+        int mask = slots.length - 1;
+        for (int slot = hash(node) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (nodes[slots[slot] - 1] == node) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Nodes are only equal to themselves, while Node.hashCode() comes from
+    // the coordinates they were created at, which two nodes can share
+    private static int hash(Node node) {
+        int h = System.identityHashCode(node) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    /**
+     * attach(key, value)
+     * 	Keeps protocol state next to the links, done from
+     * 	topologyPublishedCallback() before the snapshot is published.
+     * 	The value must not change afterwards.
+     */
+    public void attach(Object key, Object value) {
+        this.attachments.put(key, value);
+    }
+
+    /**
+     * attachment(key)
+     *
+     * @return value attached under key, or null
+     */
+    public Object attachment(Object key) {
+        return this.attachments.get(key);
+    }
+
+
+    public long getVersion() { return this.version; }
+    public int size() { return this.nodes.length; }
+    public int numEdges() { return this.targets.length / 2; }
+    public Node getNode(int v) { return this.nodes[v]; }
+    public int degree(int v) { return this.offsets[v + 1] - this.offsets[v]; }
+    public int neighbor(int v, int i) { return this.targets[this.offsets[v] + i]; }
+
+    // Raw arrays for tight loops, these must not be modified
+    int[] offsets() { return this.offsets; }
+    int[] targets() { return this.targets; }
+}
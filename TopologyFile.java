@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * TopologyFile - saves a Manet to a compact binary file and loads it back,
+ * 	so large networks are generated once and reused by many experiments.
+ *
+ * The file is a header followed by flat arrays, little endian:
+ * 	int magic, int format, int nodes N, int links M, int stack size S, int 0
+ * 	double x[N], double y[N], double range[N]
+ * 	int offsets[N + 1], int targets[M]      (CSR, like Topology)
+ * 	int remove_order[S]                     (remove_stack, bottom first)
+ * 	Ids are the ones of the NodeTable when the network was saved.
+ *
+ * Loading maps the file and copies each array in bulk, so no text is parsed
+ * 	and no link is recomputed from the coordinates. A big array is mapped
+ * 	in chunks, a single mapping cannot go past 2 GB. The arrays are checked
+ * 	before any node joins the network, in O(M log M).
+ */
+public class TopologyFile {
+
+    private static final int MAGIC = 0x4d4e4554;    // "MNET"
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 6 * 4;
+    private static final int CHUNK_BYTES = 1 << 28;
+
+
+    private TopologyFile() { }
+
+
+    /**
+     * save(manet, file)
+     * 	Writes the nodes, their links and the removal order of a network.
+     * 	Nodes that were removed but are still on the remove_stack are left
+     * 	out.
+     */
+    public static void save(Manet manet, String file) throws IOException {
+        NodeTable graph = manet.getGraph();
+        int size = graph.size();
+
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        double[] ranges = new double[size];
+        int[] offsets = new int[size + 1];
+        for (int v = 0; v < size; v++) {
+            Node node = graph.get(v);
+            xs[v] = node.getX();
+            ys[v] = node.getY();
+            ranges[v] = node.getRange();
+            offsets[v + 1] = offsets[v] + node.numNeighbors();
+        }
+
+        int[] targets = new int[offsets[size]];
+        for (int v = 0; v < size; v++) {
+            Node node = graph.get(v);
+            for (int i = 0; i < node.numNeighbors(); i++) {
+                targets[offsets[v] + i] = node.getNeighborId(i);
+            }
+        }
+
+        int[] remove_order = new int[manet.remove_stack.size()];
+        int num_removable = 0;
+        for (Node node : manet.remove_stack) {
+            if (graph.contains(node)) {
+                remove_order[num_removable++] = node.getId();
+            }
+        }
+        remove_order = Arrays.copyOf(remove_order, num_removable);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT).putInt(size).putInt(targets.length)
+                    .putInt(remove_order.length).putInt(0);
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            write(channel, buffer, xs);
+            write(channel, buffer, ys);
+            write(channel, buffer, ranges);
+            write(channel, buffer, offsets);
+            write(channel, buffer, targets);
+            write(channel, buffer, remove_order);
+        }
+    }
+
+
+    /**
+     * load(file, manet)
+     * 	Fills an empty network with the topology saved in a file. The links
+     * 	are taken as saved, generated ones included.
+     *
+     * @param manet - empty Manet to load into, whose prng keeps driving
+     * 	generateNode() afterwards
+     * @return the same Manet
+     * @throws IOException if the file cannot be read or its arrays do not
+     * 	make a valid topology, see validate()
+     */
+    public static Manet load(String file, Manet manet) throws IOException {
+        Path path = Paths.get(file);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is too short to be a topology file");
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw new IOException(file + " is not a topology file of format " + FORMAT);
+            }
+            int size = header.getInt();
+            int num_targets = header.getInt();
+            int num_removable = header.getInt();
+
+            long expected = HEADER_BYTES + 3L * 8 * size + 4L * (size + 1) + 4L * num_targets + 4L * num_removable;
+            if (size < 0 || num_targets < 0 || num_removable < 0 || channel.size() != expected) {
+                throw new IOException(file + " holds " + channel.size() + " bytes, expected " + expected);
+            }
+
+            long position = HEADER_BYTES;
+            double[] xs = new double[size];
+            double[] ys = new double[size];
+            double[] ranges = new double[size];
+            position = read(channel, position, xs);
+            position = read(channel, position, ys);
+            position = read(channel, position, ranges);
+
+            int[] offsets = new int[size + 1];
+            int[] targets = new int[num_targets];
+            int[] remove_order = new int[num_removable];
+            position = read(channel, position, offsets);
+            position = read(channel, position, targets);
+            read(channel, position, remove_order);
+            validate(file, offsets, targets, remove_order);
+
+            Node[] nodes = new Node[size];
+            for (int v = 0; v < size; v++) {
+                nodes[v] = new Node(xs[v], ys[v], ranges[v]);
+            }
+
+            manet.addTopology(nodes, offsets, targets, remove_order);
+            return manet;
+        }
+    }
+
+
+    /**
+     * validate(file, offsets, targets, remove_order)
+     * 	Checks the arrays the way save() writes them: offsets start at 0,
+     * 	never go down and end at the number of links, every neighbor list
+     * 	is sorted without repeats or the node itself, every link is there
+     * 	in both directions, and the removal order holds each id at most
+     * 	once.
+     */
+    private static void validate(String file, int[] offsets, int[] targets, int[] remove_order) throws IOException {
+        int size = offsets.length - 1;
+        if (offsets[0] != 0 || offsets[size] != targets.length) {
+            throw new IOException(file + " has offsets from " + offsets[0] + " to " + offsets[size]
+                    + ", expected 0 to " + targets.length);
+        }
+        for (int v = 0; v < size; v++) {
+            if (offsets[v + 1] < offsets[v]) {
+                throw new IOException(file + " has decreasing offsets at node " + v);
+            }
+        }
+
+        for (int v = 0; v < size; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int target = targets[i];
+                if (target < 0 || target >= size || target == v) {
+                    throw new IOException(file + " links node " + v + " to " + target);
+                }
+                if (i > offsets[v] && target <= targets[i - 1]) {
+                    throw new IOException(file + " has the neighbors of node " + v + " out of order");
+                }
+            }
+        }
+
+        // Lists are sorted by now, so the way back is a binary search
+        for (int v = 0; v < size; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int target = targets[i];
+                if (Arrays.binarySearch(targets, offsets[target], offsets[target + 1], v) < 0) {
+                    throw new IOException(file + " links node " + v + " to " + target + " but not back");
+                }
+            }
+        }
+
+        boolean[] stacked = new boolean[size];
+        for (int id : remove_order) {
+            if (id < 0 || id >= size || stacked[id]) {
+                throw new IOException(file + " has " + id + " out of range or twice in the removal order");
+            }
+            stacked[id] = true;
+        }
+    }
+
+
+    // Arrays go out through one reused direct buffer
+
+    private static void write(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            buffer.clear();
+            int count = Math.min(values.length - from, buffer.capacity() / 8);
+            buffer.asDoubleBuffer().put(values, from, count);
+            buffer.limit(count * 8);
+            writeFully(channel, buffer);
+            from += count;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            buffer.clear();
+            int count = Math.min(values.length - from, buffer.capacity() / 4);
+            buffer.asIntBuffer().put(values, from, count);
+            buffer.limit(count * 4);
+            writeFully(channel, buffer);
+            from += count;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    // Arrays come in through mappings of at most CHUNK_BYTES each
+
+    private static long read(FileChannel channel, long position, double[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, CHUNK_BYTES / 8);
+            map(channel, position, count * 8L).asDoubleBuffer().get(values, from, count);
+            position += count * 8L;
+            from += count;
+        }
+        return position;
+    }
+
+    private static long read(FileChannel channel, long position, int[] values) throws IOException {
+        for (int from = 0; from < values.length; ) {
+            int count = Math.min(values.length - from, CHUNK_BYTES / 4);
+            map(channel, position, count * 4L).asIntBuffer().get(values, from, count);
+            position += count * 4L;
+            from += count;
+        }
+        return position;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        return mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
\ No newline at end of file
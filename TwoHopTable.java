@@ -0,0 +1,310 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * TwoHopTable - the two-hop neighborhood (N2) of every node, patched as
+ * 	links come and go instead of rebuilt from the neighbors of neighbors.
+ *
+ * For every node x the table counts, per node y, the paths x - m - y of
+ * 	two hops, which is the number of neighbors x and y have in common.
+ * 	y is in N2 of x when the count is above 0, y is not x and y is not a
+ * 	neighbor of x.
+ * 	Every such path goes through one middle node m, and a link only takes
+ * 	part in the paths through its two ends. So a change comes down to
+ * 	taking out the paths through the ends of the changed links, with
+ * 	their old neighbors, and putting them back with the new ones: O(d^2)
+ * 	per end for degree d.
+ *
+ * The counts of a node sit in an open addressing table keyed by the Node
+ * 	itself, so ids moving on removal leave them alone. Only the slot of
+ * 	the node's own table moves, see removeNode().
+ */
+public class TwoHopTable {
+
+    private NodeTable graph;
+    private Neighborhood[] tables;
+
+
+    /**
+     * Constructor TwoHopTable(graph)
+     * 	Counts the paths through every node of the graph.
+     */
+    public TwoHopTable(NodeTable graph) {
+        this.graph = graph;
+        this.tables = new Neighborhood[Math.max(16, graph.size())];
+        for (Node middle : graph) {
+            addPaths(middle, neighbors(middle), 1);
+        }
+    }
+
+
+    /**
+     * get(node)
+     *
+     * @return the paths of two hops from the node, by the node they lead to
+     */
+    public Neighborhood get(Node node) {
+        return table(node.getId());
+    }
+
+
+    /**
+     * addNodes(nodes)
+     * 	Counts the paths that go through the links of nodes that just joined
+     * 	with the last ids of the graph, after their links are in place.
+     */
+    public void addNodes(List<Node> nodes) {
+        int first = this.graph.size() - nodes.size();
+
+        NodeMarks middles = new NodeMarks();
+        middles.clear(this.graph.size());
+        for (Node node : nodes) {
+            middles.mark(node.getId());
+        }
+
+        for (Node node : nodes) {
+            for (int i = 0; i < node.numNeighbors(); i++) {
+                Node middle = node.getNeighbor(i);
+                if (!middles.mark(middle.getId())) {
+                    continue;
+                }
+
+                // An old node had the paths between its old neighbors already
+                Node[] after = neighbors(middle);
+                int num_old = 0;
+                for (Node n : after) {
+                    if (n.getId() < first) { num_old++; }
+                }
+                Node[] before = new Node[num_old];
+                num_old = 0;
+                for (Node n : after) {
+                    if (n.getId() < first) { before[num_old++] = n; }
+                }
+                addPaths(middle, before, -1);
+                addPaths(middle, after, 1);
+            }
+        }
+
+        for (Node node : nodes) {
+            addPaths(node, neighbors(node), 1);
+        }
+    }
+
+
+    /**
+     * removeNode(node)
+     * 	Takes out the paths through a node that just left, and through its
+     * 	links. Called after the graph moved the last node into its id, while
+     * 	the node still knows its old neighbors.
+     */
+    public void removeNode(Node node) {
+        // The moved node takes over the slot of the removed one
+        int hole = node.getId();
+        int last = this.graph.size();
+        if (hole < this.tables.length) {
+            this.tables[hole] = (last != hole && last < this.tables.length) ? this.tables[last] : null;
+        }
+        if (last != hole && last < this.tables.length) {
+            this.tables[last] = null;
+        }
+
+        Node[] before = neighbors(node);
+        for (int i = 0; i < before.length; i++) {
+            for (int j = 0; j < before.length; j++) {
+                if (i != j) {
+                    table(before[i].getId()).add(before[j], -1);
+                }
+            }
+        }
+
+        // Paths from the node were only counted at their other end
+        for (Node middle : before) {
+            for (int i = 0; i < middle.numNeighbors(); i++) {
+                table(middle.getNeighborId(i)).add(node, -1);
+            }
+        }
+    }
+
+
+    /**
+     * linksChanged(up, down)
+     * 	Recounts the paths through both ends of every changed link, after
+     * 	the links are in place. The old neighbors of an end are its current
+     * 	ones, less the links that came up, plus the ones that went down.
+     */
+    public void linksChanged(List<Node[]> up, List<Node[]> down) {
+        HashMap<Node, ArrayList<Node>> gained = partners(up);
+        HashMap<Node, ArrayList<Node>> lost = partners(down);
+
+        NodeMarks ends = new NodeMarks();
+        ends.clear(this.graph.size());
+        for (List<Node[]> links : Arrays.asList(up, down)) {
+            for (Node[] link : links) {
+                for (Node end : link) {
+                    if (!ends.mark(end.getId())) {
+                        continue;
+                    }
+
+                    Node[] after = neighbors(end);
+                    ArrayList<Node> before = new ArrayList<Node>(after.length);
+                    ArrayList<Node> ups = gained.get(end);
+                    for (Node n : after) {
+                        if (ups == null || !ups.contains(n)) {
+                            before.add(n);
+                        }
+                    }
+                    if (lost.containsKey(end)) {
+                        before.addAll(lost.get(end));
+                    }
+
+                    addPaths(end, before.toArray(new Node[before.size()]), -1);
+                    addPaths(end, after, 1);
+                }
+            }
+        }
+    }
+
+    // The other end of each link, by end
+    private static HashMap<Node, ArrayList<Node>> partners(List<Node[]> links) {
+        HashMap<Node, ArrayList<Node>> partners = new HashMap<Node, ArrayList<Node>>();
+        for (Node[] link : links) {
+            partners.computeIfAbsent(link[0], end -> new ArrayList<Node>()).add(link[1]);
+            partners.computeIfAbsent(link[1], end -> new ArrayList<Node>()).add(link[0]);
+        }
+        return partners;
+    }
+
+
+    // Adds sign to the count of every pair of neighbors of a middle node
+    private void addPaths(Node middle, Node[] neighbors, int sign) {
+        for (int i = 0; i < neighbors.length; i++) {
+            Neighborhood table = table(neighbors[i].getId());
+            for (int j = 0; j < neighbors.length; j++) {
+                if (i != j) {
+                    table.add(neighbors[j], sign);
+                }
+            }
+        }
+    }
+
+    private static Node[] neighbors(Node node) {
+        Node[] neighbors = new Node[node.numNeighbors()];
+        for (int i = 0; i < neighbors.length; i++) {
+            neighbors[i] = node.getNeighbor(i);
+        }
+        return neighbors;
+    }
+
+    private Neighborhood table(int id) {
+        if (id >= this.tables.length) {
+            this.tables = Arrays.copyOf(this.tables, Math.max(id + 1, this.tables.length * 2));
+        }
+        if (this.tables[id] == null) {
+            this.tables[id] = new Neighborhood();
+        }
+        return this.tables[id];
+    }
+
+
+    /**
+     * Neighborhood - the nodes two hops from one node, with the number of
+     * 	paths to each. Walk it by slot, 0 up to capacity() - 1, skipping
+     * 	the empty slots where node() is null.
+     */
+    public static final class Neighborhood {
+
+        private Node[] nodes = new Node[8];
+        private int[] paths = new int[8];
+        private int size = 0;
+
+        public int capacity() { return this.nodes.length; }
+        public int size() { return this.size; }
+        public Node node(int slot) { return this.nodes[slot]; }
+        public int paths(int slot) { return this.paths[slot]; }
+
+        /**
+         * paths(node)
+         *
+         * @return paths of two hops to the node, its common neighbors
+         */
+        public int paths(Node node) {
+            int mask = this.nodes.length - 1;
+            for (int slot = hash(node) & mask; this.nodes[slot] != null; slot = (slot + 1) & mask) {
+                if (this.nodes[slot] == node) {
+                    return this.paths[slot];
+                }
+            }
+            return 0;
+        }
+
+        void add(Node node, int amount) {
+            int mask = this.nodes.length - 1;
+            int slot = hash(node) & mask;
+            while (this.nodes[slot] != null && this.nodes[slot] != node) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (this.nodes[slot] == null) {
+                if (amount <= 0) {
+                    throw new IllegalStateException("No path left to " + node);
+                }
+                this.nodes[slot] = node;
+                this.paths[slot] = amount;
+                if (++this.size * 2 > this.nodes.length) {
+                    grow();
+                }
+                return;
+            }
+
+            this.paths[slot] += amount;
+            if (this.paths[slot] == 0) {
+                remove(slot);
+            }
+        }
+
+        // Linear probing, the entries after the hole shift back into it
+        private void remove(int hole) {
+            int mask = this.nodes.length - 1;
+            this.nodes[hole] = null;
+            this.size--;
+
+            for (int slot = (hole + 1) & mask; this.nodes[slot] != null; slot = (slot + 1) & mask) {
+                int home = hash(this.nodes[slot]) & mask;
+                // Move the entry if the hole lies between its home and its slot
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    this.nodes[hole] = this.nodes[slot];
+                    this.paths[hole] = this.paths[slot];
+                    this.nodes[slot] = null;
+                    hole = slot;
+                }
+            }
+        }
+
+        private void grow() {
+            Node[] old_nodes = this.nodes;
+            int[] old_paths = this.paths;
+            this.nodes = new Node[old_nodes.length * 2];
+            this.paths = new int[old_paths.length * 2];
+
+            int mask = this.nodes.length - 1;
+            for (int k = 0; k < old_nodes.length; k++) {
+                if (old_nodes[k] != null) {
+                    int slot = hash(old_nodes[k]) & mask;
+                    while (this.nodes[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.nodes[slot] = old_nodes[k];
+                    this.paths[slot] = old_paths[k];
+                }
+            }
+        }
+
+        private static int hash(Node node) {
+            int h = node.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
\ No newline at end of file
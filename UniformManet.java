@@ -1,3 +1,4 @@
+import java.util.ArrayList;
 import java.awt.geom.Point2D;
 
 /**
@@ -17,6 +18,9 @@ public class UniformManet extends Manet {
      * communication range of all nodes, it will "walk" towards the closest 
      * node in the graph. This is done to simulate a device "approaching" the
      * network physically.
+     *
+     * Candidates are looked up through the CellGrid of the Manet, so adding a
+     * node only visits the cells around it rather than the whole graph.
      **/
     public void generateNode() {
         // Generate an x and y within the world coordinates
@@ -29,70 +33,152 @@ public class UniformManet extends Manet {
 
         Node new_node = new Node(x, y, super.NODE_COMM_RANGE);
 
-        // Keep track of the closest just in case we don't find one in range
-        double minimum_distance = Double.MAX_VALUE;
-        Node closest_node = null;
-
         // If this is the first node added, we're done here
         if (super.graph.isEmpty()) {
             super.addNode(new_node);
             return;
         }
 
-        // Go through each node in the graph. If it's within range, connect
-        for (Node node : super.graph) {
-            double distance = Point2D.distance(x, y, node.getX(), node.getY());
-            
-            if (distance < minimum_distance) {
-                minimum_distance = distance;
-                closest_node = node;
-            }
+        // Nodes to link to once the new node is added
+        ArrayList<Node> links = new ArrayList<Node>();
 
-            if (node.canCommunicate(new_node)) {
-                node.addNeighbor(new_node);
-                new_node.addNeighbor(node);
+        // Only the 3x3 block of cells around the node can be within range
+        int column = super.cells.column(x);
+        int row = super.cells.row(y);
+
+        for (int i = column - 1; i <= column + 1; i++) {
+            for (int j = row - 1; j <= row + 1; j++) {
+                for (Node node : super.cells.cell(i, j)) {
+                    if (node.canCommunicate(new_node)) {
+                        links.add(node);
+                    }
+                }
             }
         }
 
         // If we didn't find one within range, attach to the closest
-        if (new_node.getNeighbors().isEmpty()) {
-            // Right-angled triangles with the same points are similar
-            // So, get the ratio, and scale the difference in coordinates
-            double ratio = super.NODE_COMM_RANGE / minimum_distance;
-            
-            double walk_x = 0;
-            double walk_y = 0;
-
-            // Do checks to make sure the line orientation is l->r top->bot
-            if (new_node.getX() >= closest_node.getX()) {
-                walk_x = closest_node.getX() + ((new_node.getX() - closest_node.getX()) * ratio);
-            } else {
-                walk_x = closest_node.getX() - ((closest_node.getX() - new_node.getX()) * ratio);
+        if (links.isEmpty()) {
+            // Widen the search ring by ring until the closest node is found
+            Node closest_node = super.cells.nearest(x, y);
+
+            new_node = walkTowards(new_node, closest_node);
+            links.add(closest_node);
+        }
+
+        super.addNode(new_node, links);
+    }
+
+
+    /**
+     * generateNodes(n)
+     * 	Bulk version of generateNode(). The points are drawn from the PRNG
+     * 	one after another exactly as n calls to generateNode() would, walking
+     * 	towards the closest node where needed, so the same seed gives the
+     * 	same network. The links are then built all at once by Manet.addNodes()
+     * 	and listeners get a single addNodesCallback().
+     *
+     * @param n - number of nodes to add
+     */
+    public void generateNodes(int n) {
+        Node[] nodes = new Node[n];
+        Node[] anchors = new Node[n];
+
+        // Nodes drawn so far, they only join the Manet at the end
+        CellGrid pending = new CellGrid(super.WORLD_LIMIT, super.cells.getCellSize());
+
+        for (int k = 0; k < n; k++) {
+            double x = super.prng.nextDouble();
+            double y = super.prng.nextDouble();
+
+            x = (x * super.WORLD_LIMIT) - (super.WORLD_LIMIT / 2);
+            y = (y * super.WORLD_LIMIT) - (super.WORLD_LIMIT / 2);
+
+            Node new_node = new Node(x, y, super.NODE_COMM_RANGE);
+
+            boolean first = super.graph.isEmpty() && k == 0;
+            if (!first && !inRange(super.cells, new_node) && !inRange(pending, new_node)) {
+                Node closest_node = super.cells.nearest(x, y);
+                Node closest_pending = pending.nearest(x, y);
+
+                if (closest_node == null || (closest_pending != null
+                        && Point2D.distance(x, y, closest_pending.getX(), closest_pending.getY())
+                        < Point2D.distance(x, y, closest_node.getX(), closest_node.getY()))) {
+                    closest_node = closest_pending;
+                }
+
+                new_node = walkTowards(new_node, closest_node);
+                anchors[k] = closest_node;
             }
 
-            if (new_node.getY() >= closest_node.getY()) {
-                walk_y = closest_node.getY() + ((new_node.getY() - closest_node.getY()) * ratio);
-            } else {
-                walk_y = closest_node.getY() - ((closest_node.getY() - new_node.getY()) * ratio);
-            }            
-            
-            Node orig = new_node;
-            new_node = new Node(walk_x, walk_y, super.NODE_COMM_RANGE);
-
-            if(!new_node.canCommunicate(closest_node)){
-                double new_distance = Point2D.distance(walk_x, walk_y, closest_node.getX(), closest_node.getY());
-                System.err.println("Logical Error in Node Generation: Incorrect Computation.");
-                System.err.println("  New Node: (" + orig.getX() + ", " + orig.getY() + ")");
-                System.err.println("  Closest : (" + closest_node.getX() + ", " + closest_node.getY() + ")");
-                System.err.println("  Adjusted: (" + walk_x + ", " + walk_y + ")");
-                System.err.println("  Distance: " + new_distance);
-                System.exit(1);
+            nodes[k] = new_node;
+            pending.add(new_node);
+        }
+
+        super.addNodes(nodes, anchors);
+    }
+
+
+    // Checks the 3x3 block of cells around a node for one within range
+    private static boolean inRange(CellGrid grid, Node new_node) {
+        int column = grid.column(new_node.getX());
+        int row = grid.row(new_node.getY());
+
+        for (int i = column - 1; i <= column + 1; i++) {
+            for (int j = row - 1; j <= row + 1; j++) {
+                for (Node node : grid.cell(i, j)) {
+                    if (node.canCommunicate(new_node)) {
+                        return true;
+                    }
+                }
             }
+        }
+        return false;
+    }
+
+
+    /**
+     * walkTowards(new_node, closest_node)
+     * 	Moves a node that is out of range of everything along the line to the
+     * 	closest node, until it is just within communication range of it.
+     *
+     * @return Node at the walked coordinates
+     */
+    private Node walkTowards(Node new_node, Node closest_node) {
+        double minimum_distance = Point2D.distance(new_node.getX(), new_node.getY(), closest_node.getX(), closest_node.getY());
+
+        // Right-angled triangles with the same points are similar
+        // So, get the ratio, and scale the difference in coordinates
+        double ratio = super.NODE_COMM_RANGE / minimum_distance;
+        
+        double walk_x = 0;
+        double walk_y = 0;
+
+        // Do checks to make sure the line orientation is l->r top->bot
+        if (new_node.getX() >= closest_node.getX()) {
+            walk_x = closest_node.getX() + ((new_node.getX() - closest_node.getX()) * ratio);
+        } else {
+            walk_x = closest_node.getX() - ((closest_node.getX() - new_node.getX()) * ratio);
+        }
+
+        if (new_node.getY() >= closest_node.getY()) {
+            walk_y = closest_node.getY() + ((new_node.getY() - closest_node.getY()) * ratio);
+        } else {
+            walk_y = closest_node.getY() - ((closest_node.getY() - new_node.getY()) * ratio);
+        }            
+        
+        Node orig = new_node;
+        new_node = new Node(walk_x, walk_y, super.NODE_COMM_RANGE);
 
-            new_node.addNeighbor(closest_node);
-            closest_node.addNeighbor(new_node);
+        if(!new_node.canCommunicate(closest_node)){
+            double new_distance = Point2D.distance(walk_x, walk_y, closest_node.getX(), closest_node.getY());
+            System.err.println("Logical Error in Node Generation: Incorrect Computation.");
+            System.err.println("  New Node: (" + orig.getX() + ", " + orig.getY() + ")");
+            System.err.println("  Closest : (" + closest_node.getX() + ", " + closest_node.getY() + ")");
+            System.err.println("  Adjusted: (" + walk_x + ", " + walk_y + ")");
+            System.err.println("  Distance: " + new_distance);
+            System.exit(1);
         }
 
-        super.addNode(new_node);
+        return new_node;
     }
 }
\ No newline at end of file
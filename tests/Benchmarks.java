@@ -0,0 +1,331 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/* BENCHMARK - Timings of the hot paths of the simulator, to compare a
+ * 	change against a baseline run with the same arguments
+ */
+public class Benchmarks {
+
+    static final int WARMUP_ITERATIONS = 2;
+
+    // Results are folded in here, so the JIT cannot drop the work
+    static volatile long sink;
+
+    // Runs the listeners of the concurrent growth step, daemon threads so
+    // the harness can exit
+    static final ExecutorService listener_pool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    /**
+     * Benchmark - one timed operation. setup() builds a fresh state before
+     * 	every iteration, outside the timing, then op() runs ops() times.
+     */
+    static abstract class Benchmark {
+        final String name;
+        final boolean uses_density;
+
+        Benchmark(String name, boolean uses_density) {
+            this.name = name;
+            this.uses_density = uses_density;
+        }
+
+        abstract void setup(int n, double density, long seed);
+        abstract int ops();
+        abstract void op(int k);
+    }
+
+
+    public static void main(String args[]) throws Exception {
+        int[] sizes = null;
+        double[] densities = null;
+        int num_iterations = 0;
+        long seed = 0;
+
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: java Benchmarks <N,N,...> <density,density,...> <iterations> <seed> [name]");
+            System.out.println("  density is the number of nodes per unit of area, the range is 1");
+            System.exit(1);
+        }
+
+        try {
+            String[] size_args = args[0].split(",");
+            sizes = new int[size_args.length];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = Integer.parseInt(size_args[i]);
+            }
+
+            String[] density_args = args[1].split(",");
+            densities = new double[density_args.length];
+            for (int i = 0; i < densities.length; i++) {
+                densities[i] = Double.parseDouble(density_args[i]);
+            }
+
+            num_iterations = Integer.parseInt(args[2]);
+            seed = Long.parseLong(args[3]);
+        }
+        catch (Exception e) {
+            System.out.println("Error - Sizes, densities, iterations and seed must be numerical.");
+            System.exit(1);
+        }
+
+        if (num_iterations < 1) {
+            System.out.println("Error - iterations must be a positive number.");
+            System.exit(1);
+        }
+
+        String filter = (args.length == 5) ? args[4] : null;
+
+        System.out.println("Benchmark               N   Density        ns/op         +-         B/op       MB/s");
+
+        for (Benchmark benchmark : benchmarks()) {
+            if (filter != null && !benchmark.name.equals(filter)) {
+                continue;
+            }
+
+            for (int n : sizes) {
+                double[] run_densities = benchmark.uses_density ? densities : new double[] { Double.NaN };
+                for (double density : run_densities) {
+                    measure(benchmark, n, density, num_iterations, seed);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * measure(benchmark, n, density, iterations, seed)
+     * 	Runs the warmup iterations, then the measured ones, and prints the
+     * 	mean time per op with its standard deviation over the iterations,
+     * 	and the bytes allocated per op by every thread, so what the team and
+     * 	listener threads of the parallel benchmarks allocate counts too.
+     */
+    static void measure(Benchmark benchmark, int n, double density, int num_iterations, long seed) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        double[] ns_per_op = new double[num_iterations];
+        double total_bytes = 0;
+        double total_ops = 0;
+        double total_ns = 0;
+
+        for (int iteration = -WARMUP_ITERATIONS; iteration < num_iterations; iteration++) {
+            benchmark.setup(n, density, seed + iteration);
+            int ops = benchmark.ops();
+            System.gc();
+
+            long bytes = allocatedBytes(threads);
+            long start = System.nanoTime();
+            for (int k = 0; k < ops; k++) {
+                benchmark.op(k);
+            }
+            long elapsed = System.nanoTime() - start;
+            bytes = allocatedBytes(threads) - bytes;
+
+            if (iteration >= 0) {
+                ns_per_op[iteration] = (double) elapsed / ops;
+                total_bytes += bytes;
+                total_ops += ops;
+                total_ns += elapsed;
+            }
+        }
+
+        double mean = 0.0;
+        for (double value : ns_per_op) {
+            mean += value / num_iterations;
+        }
+        double variance = 0.0;
+        for (double value : ns_per_op) {
+            variance += (value - mean) * (value - mean) / Math.max(1, num_iterations - 1);
+        }
+
+        System.out.printf("%-18s %6d  %8s %12.1f %10.1f %12.1f %10.1f %n",
+                benchmark.name, n, Double.isNaN(density) ? "-" : String.format("%.1f", effectiveDensity(n, density)),
+                mean, Math.sqrt(variance), total_bytes / total_ops, total_bytes / total_ns * 1e3);
+    }
+
+
+    // Bytes allocated so far by the live threads, -1 for a thread that died
+    static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+
+    /**
+     * network(n, density, seed)
+     * 	Builds a connected network of n nodes with about the given density:
+     * 	the points are drawn in a square of the matching side, and a point
+     * 	is only kept if it is in range of one kept before.
+     * 	The density cannot go below n over the area of the world.
+     */
+    static Manet network(int n, double density, long seed) {
+        Random prng = new Random(seed);
+        UniformManet world = new UniformManet(seed);
+        double side = Math.min(world.WORLD_LIMIT, Math.sqrt(n / density));
+        CellGrid kept = new CellGrid(world.WORLD_LIMIT, world.getCells().getCellSize());
+
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int num_kept = 0;
+        while (num_kept < n) {
+            Node node = new Node((prng.nextDouble() - 0.5) * side, (prng.nextDouble() - 0.5) * side, world.NODE_COMM_RANGE);
+            if (num_kept == 0 || inRange(kept, node)) {
+                kept.add(node);
+                xs[num_kept] = node.getX();
+                ys[num_kept] = node.getY();
+                num_kept++;
+            }
+        }
+        return Manet.fromPoints(xs, ys, new UniformManet(0));
+    }
+
+    // The density network() actually gets for n nodes
+    static double effectiveDensity(int n, double density) {
+        double world_limit = new UniformManet(0).WORLD_LIMIT;
+        return Math.max(density, n / (world_limit * world_limit));
+    }
+
+    private static boolean inRange(CellGrid cells, Node node) {
+        int column = cells.column(node.getX());
+        int row = cells.row(node.getY());
+        for (int i = column - 1; i <= column + 1; i++) {
+            for (int j = row - 1; j <= row + 1; j++) {
+                for (Node other : cells.cell(i, j)) {
+                    if (other.canCommunicate(node)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+
+    static ArrayList<Benchmark> benchmarks() {
+        ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        // A twentieth of the network joins in each iteration, so its size
+        // stays close to N
+        benchmarks.add(new Benchmark("generateNode", false) {
+            UniformManet network;
+            int n;
+
+            void setup(int n, double density, long seed) {
+                this.network = new UniformManet(seed);
+                this.network.generateNodes(n);
+                this.n = n;
+            }
+            int ops() { return Math.max(1, n / 20); }
+            void op(int k) { network.generateNode(); }
+        });
+
+        benchmarks.add(new Benchmark("getRandomNode", true) {
+            OLSRWrapper olsr;
+
+            void setup(int n, double density, long seed) {
+                this.olsr = new OLSRWrapper(network(n, density, seed), seed);
+            }
+            int ops() { return 100000; }
+            void op(int k) { sink += olsr.getRandomNode().getId(); }
+        });
+
+        benchmarks.add(new Benchmark("floodBFS", true) {
+            OLSRWrapper olsr;
+
+            void setup(int n, double density, long seed) {
+                this.olsr = new OLSRWrapper(network(n, density, seed), seed);
+            }
+            int ops() { return 20; }
+            void op(int k) { sink += olsr.floodBFS(); }
+        });
+
+        benchmarks.add(new Benchmark("findMPRs", true) {
+            OLSRWrapper olsr;
+
+            void setup(int n, double density, long seed) {
+                this.olsr = new OLSRWrapper(network(n, density, seed), seed);
+            }
+            int ops() { return 50; }
+            void op(int k) { sink += olsr.findMPRs(olsr.getRandomNode()).size(); }
+        });
+
+        benchmarks.add(new Benchmark("floodTopology", true) {
+            OLSRWrapper olsr;
+
+            void setup(int n, double density, long seed) {
+                this.olsr = new OLSRWrapper(network(n, density, seed), seed);
+            }
+            int ops() { return 200; }
+            void op(int k) {
+                olsr.floodTopology(olsr.getRandomNode(), 1);
+                sink += olsr.getTotalPacketsRecieved();
+            }
+        });
+
+        // Routing tables are built lazily, so the first pings pay for them
+        benchmarks.add(new Benchmark("OLSR.ping", true) {
+            OLSRWrapper olsr;
+
+            void setup(int n, double density, long seed) {
+                this.olsr = new OLSRWrapper(network(n, density, seed), seed);
+            }
+            int ops() { return 2000; }
+            void op(int k) { sink += olsr.ping(olsr.getRandomNode(), olsr.getRandomNode()).size(); }
+        });
+
+        // Heights are kept between pings, so the first pings pay for them
+        benchmarks.add(new Benchmark("TORA.ping", true) {
+            TORAWrapper tora;
+
+            void setup(int n, double density, long seed) {
+                this.tora = new TORAWrapper(network(n, density, seed), seed);
+            }
+            int ops() { return 2000; }
+            void op(int k) { sink += tora.ping(tora.getRandomNode(), tora.getRandomNode()).size(); }
+        });
+
+        benchmarks.add(new Benchmark("growthStep", false) {
+            UniformManet network;
+            int n;
+
+            void setup(int n, double density, long seed) {
+                this.network = new UniformManet(seed);
+                this.network.generateNodes(n);
+                new TORAWrapper(this.network, seed);
+                new OLSRWrapper(this.network, seed);
+                this.n = n;
+            }
+            int ops() { return Math.max(1, n / 20); }
+            void op(int k) { network.generateNode(); }
+        });
+
+        // Same, with the listeners of each step running at once
+        benchmarks.add(new Benchmark("growthStepParallel", false) {
+            UniformManet network;
+            int n;
+
+            void setup(int n, double density, long seed) {
+                this.network = new UniformManet(seed);
+                this.network.generateNodes(n);
+                new TORAWrapper(this.network, seed);
+                new OLSRWrapper(this.network, seed);
+                this.network.setListenerExecutor(listener_pool);
+                this.n = n;
+            }
+            int ops() { return Math.max(1, n / 20); }
+            void op(int k) { network.generateNode(); }
+        });
+
+        return benchmarks;
+    }
+}
\ No newline at end of file
@@ -1,5 +1,8 @@
 import java.util.Random;
-import java.util.ArrayList;
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
 import edu.rit.numeric.ListSeries;
 import edu.rit.numeric.ListXYSeries;
 import edu.rit.numeric.plot.Plot;
@@ -12,15 +15,15 @@ import java.awt.Color;
 /* TEST 2 - Overhead of a decaying network */
 public class DecayOverheadTest {
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws Exception {
 
         int NL = 0;
         int NU = 0;
         int num_tests = 0;
         long seed = 0;
 
-        if (args.length != 4) {
-            System.out.println("Usage: java DecayOverheadTest <NU> <NL> <tests> <seed>");
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: java DecayOverheadTest <NU> <NL> <tests> <seed> [results.csv|results.jsonl]");
             System.exit(1);
         }
 
@@ -47,45 +50,40 @@ public class DecayOverheadTest {
 
         Random seed_generator = new Random(seed);
 
-        ArrayList< ArrayList<Integer> > tora_results = new ArrayList< ArrayList<Integer> >(num_tests);
-        ArrayList< ArrayList<Integer> > olsr_results = new ArrayList< ArrayList<Integer> >(num_tests);
+        // Results are streamed out as they come, and summed up at the end
+        final ResultSink sink = ResultSink.open(args.length == 5 ? args[4] : null);
 
 
+        // Draw every seed up front, in the order the tests used to draw them,
+        // so running the tests in parallel gives the same results
+        final long[][] test_seeds = new long[num_tests][3];
         for (int test = 0; test < num_tests; test++) {
-            System.out.println("Test " + (test + 1) + "...");
-
-            tora_results.add(test, new ArrayList<Integer>(NU - NL));
-            olsr_results.add(test, new ArrayList<Integer>(NU - NL));
-
-            ArrayList<Integer> tora_test_results = tora_results.get(test);
-            ArrayList<Integer> olsr_test_results = olsr_results.get(test);
-
-
-            // make the MANET
-            Manet network = new UniformManet(seed_generator.nextLong());
-            network.generateNode();
-
-            for (int i = NL; i <= NU; i++) {
-                network.generateNode();
+            for (int s = 0; s < 3; s++) {
+                test_seeds[test][s] = seed_generator.nextLong();
             }
+        }
 
-            // Wrap it with the protocols
-            TORAWrapper tora = new TORAWrapper(network, seed_generator.nextLong());
-            OLSRWrapper olsr = new OLSRWrapper(network, seed_generator.nextLong());
-
-            for (int i = NU; i >= NL; i--) {
-                network.removeLastNode();
-
-                // GET OVERHEAD HERE
-                int tora_overhead = tora.getTotalPacketsRecieved();
-                int olsr_overhead = olsr.getTotalPacketsRecieved();
-
-                tora_test_results.add(tora_overhead);
-                olsr_test_results.add(olsr_overhead);
+        // Each test builds its own network, so they run on a ParallelTeam
+        final int nl = NL;
+        final int nu = NU;
+        final int tests = num_tests;
+        new ParallelTeam().execute(new ParallelRegion() {
+            public void run() throws Exception {
+                execute(0, tests - 1, new IntegerForLoop() {
+                    public IntegerSchedule schedule() { return IntegerSchedule.dynamic(1); }
+
+                    public void run(int first, int last) throws Exception {
+                        for (int test = first; test <= last; test++) {
+                            runTest(test, test_seeds[test], nl, nu, sink);
+                        }
+                    }
+                });
             }
-        }
+        });
+
 
         // Now that we ran through the tests, time to do some stats
+        ResultSink.Summary summary = sink.summarize();
         ListXYSeries tora_averages = new ListXYSeries();
         ListXYSeries olsr_averages = new ListXYSeries();
 
@@ -93,44 +91,70 @@ public class DecayOverheadTest {
         System.out.println("N Nodes     TORA        OLSR    ");
 
 
-        int i = 0;
         for (int n = NU; n >= NL; n--) {
-            double n_tora_average = 0.0;
-            double n_olsr_average = 0.0;
-
-            for (int j = 0; j < num_tests; j++) {
-                n_tora_average = n_tora_average + tora_results.get(j).get(i);
-                n_olsr_average = n_olsr_average + olsr_results.get(j).get(i);
-            }
-            n_tora_average = n_tora_average / num_tests;
-            n_olsr_average = n_olsr_average / num_tests;
+            double n_tora_average = summary.mean(n, "TORA", "overhead");
+            double n_olsr_average = summary.mean(n, "OLSR", "overhead");
 
             tora_averages.add(n, n_tora_average);
             olsr_averages.add(n, n_olsr_average);
 
             System.out.printf ("%3d       %7.2f    %7.2f %n", n, n_tora_average, n_olsr_average);
-            i++;
         }
 
         System.out.println("-----------------------------------------");
         double[] ttest = Statistics.tTestUnequalVariance(tora_averages.ySeries(), olsr_averages.ySeries());
         System.out.printf ("T Value: %.3f    P Value: %.3f %n", ttest[0], ttest[1]);
 
-        new Plot()
-         .plotTitle ("Message Overhead during Network Decay")
-         .xAxisTitle ("Nodes N in Network")
-         .yAxisTitle ("Number of Messages Recieved")
-         .xAxisStart (NU)
-         .xAxisEnd (NL)
-         .seriesStroke (Strokes.solid (1))
-         .seriesDots (null)
-         .seriesColor (Color.RED)
-         .xySeries (tora_averages)
-         .seriesStroke (Strokes.solid (1))
-         .seriesColor (Color.BLUE)
-         .xySeries (olsr_averages)
-         .getFrame()
-         .setVisible (true);
+        if (ResultSink.plotting()) {
+            new Plot()
+             .plotTitle ("Message Overhead during Network Decay")
+             .xAxisTitle ("Nodes N in Network")
+             .yAxisTitle ("Number of Messages Recieved")
+             .xAxisStart (NU)
+             .xAxisEnd (NL)
+             .seriesStroke (Strokes.solid (1))
+             .seriesDots (null)
+             .seriesColor (Color.RED)
+             .xySeries (tora_averages)
+             .seriesStroke (Strokes.solid (1))
+             .seriesColor (Color.BLUE)
+             .xySeries (olsr_averages)
+             .getFrame()
+             .setVisible (true);
+        }
+    }
+
+
+    /**
+     * runTest(test, seeds, ...)
+     * 	Runs one test on its own network, seeded with the three seeds drawn
+     * 	for it. Every result goes straight to the sink.
+     */
+    private static void runTest(int test, long[] seeds, int NL, int NU, ResultSink sink) throws Exception {
+        System.out.println("Test " + (test + 1) + "...");
+
+        // make the MANET
+        Manet network = new UniformManet(seeds[0]);
+        network.generateNode();
+
+        for (int i = NL; i <= NU; i++) {
+            network.generateNode();
+        }
+
+        // Wrap it with the protocols
+        TORAWrapper tora = new TORAWrapper(network, seeds[1]);
+        OLSRWrapper olsr = new OLSRWrapper(network, seeds[2]);
+
+        for (int i = NU; i >= NL; i--) {
+            network.removeLastNode();
+
+            // GET OVERHEAD HERE
+            int tora_overhead = tora.getTotalPacketsRecieved();
+            int olsr_overhead = olsr.getTotalPacketsRecieved();
+
+            sink.write(test, i, "TORA", "overhead", tora_overhead);
+            sink.write(test, i, "OLSR", "overhead", olsr_overhead);
+        }
     }
 
 }
\ No newline at end of file
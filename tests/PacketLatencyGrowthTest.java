@@ -0,0 +1,192 @@
+import java.util.Random;
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+import edu.rit.numeric.ListXYSeries;
+import edu.rit.numeric.plot.Plot;
+import edu.rit.numeric.plot.Strokes;
+import edu.rit.numeric.Statistics;
+import java.awt.Color;
+
+
+/* TEST 7 - Test the latency and delivery ratio of concurrent pings, with
+ * 	a discrete-event simulation of the packets
+ */
+public class PacketLatencyGrowthTest {
+
+    // Time for a node to send one packet, and per unit of distance
+    static final double TRANSMISSION_DELAY = 0.001;
+    static final double PROPAGATION_DELAY = 0.0001;
+    static final int QUEUE_CAPACITY = 64;
+
+    // Mean time between two pings, and between two HELLOs or TCs of a node
+    static final double PING_INTERVAL = 0.002;
+    static final double HELLO_INTERVAL = 1.0;
+    static final double TC_INTERVAL = 2.5;
+
+
+    public static void main(String args[]) throws Exception {
+        int NU = 0;
+        int NL = 0;
+        int num_tests = 0;
+        int num_packets = 0;
+        long seed = 0;
+
+        // Argument Validation
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java PacketLatencyGrowthTest <NL> <NU> <tests> <packets> <seed> [results.csv|results.jsonl]");
+            System.exit(1);
+        }
+
+        try {
+            NL = Integer.parseInt(args[0]);
+            NU = Integer.parseInt(args[1]);
+            num_tests = Integer.parseInt(args[2]);
+            num_packets = Integer.parseInt(args[3]);
+            
+            seed = Long.parseLong(args[4]);
+        }
+        catch (Exception e) {
+            System.out.println("Error - All arguments must be numerical.");
+            System.exit(1);
+        }
+
+        if (NL < 1) {
+            System.out.println("Error - NL must be a positive number.");
+            System.exit(1);
+        }
+
+        if (NU <= NL) {
+            System.out.println("Error - NU must be greater than NL.");
+            System.exit(1);
+        }
+
+        Random seed_generator = new Random(seed);
+
+        // Per test and network size: latency and delivery ratio, streamed
+        // out as they come and summed up at the end
+        final ResultSink sink = ResultSink.open(args.length == 6 ? args[5] : null);
+
+        final long[][] test_seeds = new long[num_tests][4];
+        for (int test = 0; test < num_tests; test++) {
+            for (int s = 0; s < 4; s++) {
+                test_seeds[test][s] = seed_generator.nextLong();
+            }
+        }
+
+        // Each test builds its own network, so they run on a ParallelTeam
+        final int nl = NL;
+        final int nu = NU;
+        final int tests = num_tests;
+        final int packets = num_packets;
+        new ParallelTeam().execute(new ParallelRegion() {
+            public void run() throws Exception {
+                execute(0, tests - 1, new IntegerForLoop() {
+                    public IntegerSchedule schedule() { return IntegerSchedule.dynamic(1); }
+
+                    public void run(int first, int last) throws Exception {
+                        for (int test = first; test <= last; test++) {
+                            runTest(test, test_seeds[test], nl, nu, packets, sink);
+                        }
+                    }
+                });
+            }
+        });
+
+
+        ResultSink.Summary summary = sink.summarize();
+        ListXYSeries tora_averages = new ListXYSeries();
+        ListXYSeries olsr_averages = new ListXYSeries();
+
+        System.out.println("          Latency Averages                 Delivery Ratio     ");
+        System.out.println("N Nodes     TORA        OLSR         TORA        OLSR    ");
+
+        for (int n = NL; n <= NU; n++ ){
+            double tora_latency = summary.mean(n, "TORA", "latency");
+            double olsr_latency = summary.mean(n, "OLSR", "latency");
+
+            tora_averages.add(n, tora_latency);
+            olsr_averages.add(n, olsr_latency);
+
+            System.out.printf ("%3d       %7.4f    %7.4f      %7.4f    %7.4f %n", n,
+                    tora_latency, olsr_latency,
+                    summary.mean(n, "TORA", "delivery"), summary.mean(n, "OLSR", "delivery"));
+        }
+
+        System.out.println("-----------------------------------------");
+        double[] ttest = Statistics.tTestUnequalVariance(tora_averages.ySeries(), olsr_averages.ySeries());
+        System.out.printf ("T Value: %.3f    P Value: %.3f %n", ttest[0], ttest[1]);
+        
+        // Now that we ran through the tests, time to do some stats
+        if (ResultSink.plotting()) {
+            new Plot()
+             .plotTitle ("Latency of Concurrent Pings (Growth)")
+             .xAxisTitle ("Nodes N in Network")
+             .yAxisTitle ("Mean Latency")
+             .seriesStroke (Strokes.solid (1))
+             .seriesDots (null)
+             .seriesColor (Color.RED)
+             .xySeries (tora_averages)
+             .seriesStroke (Strokes.solid (1))
+             .seriesColor (Color.BLUE)
+             .xySeries (olsr_averages)
+             .getFrame()
+             .setVisible (true);
+        }
+         
+    }
+
+
+    /**
+     * runTest(test, seeds, ...)
+     * 	Runs one test on its own network. At every size, both protocols
+     * 	carry the same traffic, drawn from the fourth seed.
+     */
+    private static void runTest(int test, long[] seeds, int NL, int NU, int num_packets,
+            ResultSink sink) throws Exception {
+        System.out.println("Test " + (test + 1) + "...");
+
+        // make the MANET
+        Manet network = new UniformManet(seeds[0]);
+        network.generateNode();
+
+        // Wrap it with the protocols
+        TORAWrapper tora = new TORAWrapper(network, seeds[1]);
+        OLSRWrapper olsr = new OLSRWrapper(network, seeds[2]);
+        Random traffic = new Random(seeds[3]);
+
+        for (int i = 1; i < NL; i++) {
+            network.generateNode();
+        }
+
+        for (int i = NL; i <= NU; i++) {
+            long traffic_seed = traffic.nextLong();
+
+            double[] tora_result = simulate(network, tora, num_packets, traffic_seed);
+            double[] olsr_result = simulate(network, olsr, num_packets, traffic_seed);
+
+            sink.write(test, i, "TORA", "latency", tora_result[0]);
+            sink.write(test, i, "TORA", "delivery", tora_result[1]);
+            sink.write(test, i, "OLSR", "latency", olsr_result[0]);
+            sink.write(test, i, "OLSR", "delivery", olsr_result[1]);
+
+            network.generateNode();
+        }
+    }
+
+
+    // Runs the traffic over one protocol, gives the latency and delivery ratio
+    private static double[] simulate(Manet network, ManetWrapper protocol, int num_packets, long traffic_seed) {
+        PacketSimulation simulation = new PacketSimulation(network, protocol,
+                TRANSMISSION_DELAY, PROPAGATION_DELAY, QUEUE_CAPACITY);
+
+        simulation.generateTraffic(num_packets, PING_INTERVAL, traffic_seed);
+        simulation.startHellos(HELLO_INTERVAL, num_packets * PING_INTERVAL);
+        simulation.startTCs(TC_INTERVAL, num_packets * PING_INTERVAL);
+        simulation.run();
+
+        return new double[] { simulation.getMeanLatency(), simulation.getDeliveryRatio() };
+    }
+
+}
\ No newline at end of file
@@ -1,5 +1,5 @@
 import java.util.Random;
-import java.util.ArrayList;
+import edu.rit.pj.ParallelTeam;
 import edu.rit.numeric.ListSeries;
 import edu.rit.numeric.ListXYSeries;
 import edu.rit.numeric.plot.Plot;
@@ -12,7 +12,7 @@ import java.awt.Color;
 /* TEST 4 - Overhead of a ping in a decaying network */
 public class PingOverheadDecayTest {
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws Exception {
 
         int NU = 0;
         int NL = 0;
@@ -21,8 +21,9 @@ public class PingOverheadDecayTest {
         long seed = 0;
 
         // Argument Validation
-        if (args.length != 5) {
-            System.out.println("Usage: java PingOverheadDecayTest <NU> <NL> <tests> <trials> <seed>");
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java PingOverheadDecayTest <NU> <NL> <tests> <trials> <seed> [results.csv|results.jsonl]");
+            System.out.println("  -Dtrials=parallel runs the OLSR trials of each size at once, the TORA ones still run in order");
             System.exit(1);
         }
 
@@ -53,67 +54,35 @@ public class PingOverheadDecayTest {
 
         Random seed_generator = new Random(seed);
 
-        ArrayList< ArrayList<Double> > tora_results = new ArrayList< ArrayList<Double> >(num_tests);
-        ArrayList< ArrayList<Double> > olsr_results = new ArrayList< ArrayList<Double> >(num_tests);
+        // Results are streamed out as they come, and summed up at the end
+        final ResultSink sink = ResultSink.open(args.length == 6 ? args[5] : null);
 
 
+        // Draw every seed up front, in the order the tests used to draw them,
+        // so running the tests in parallel gives the same results
+        final long[][] test_seeds = new long[num_tests][3];
         for (int test = 0; test < num_tests; test++) {
-            System.out.println("Test " + (test + 1) + "...");
-
-            tora_results.add(test, new ArrayList<Double>());
-            olsr_results.add(test, new ArrayList<Double>());
-
-            // make the MANET
-            Manet network = new UniformManet(seed_generator.nextLong());
-            network.generateNode();
-
-            for (int i = 1; i <= NU; i++) {
-                network.generateNode();
+            for (int s = 0; s < 3; s++) {
+                test_seeds[test][s] = seed_generator.nextLong();
             }
+        }
 
-            // Wrap it with the protocols
-            TORAWrapper tora = new TORAWrapper(network, seed_generator.nextLong());
-            OLSRWrapper olsr = new OLSRWrapper(network, seed_generator.nextLong());
-
-            for (int i = NU; i >= NL; i--) {
-                network.removeLastNode();
-
-                // GET OVERHEAD HERE
-                ListSeries toraBSeries = new ListSeries();
-                ListSeries olsrBSeries = new ListSeries();
-
-                for (int trial = 0; trial < num_trials; trial++) {
-                    olsr.clearMetrics();
-                    tora.clearMetrics();
-                    
-                    Node source = olsr.getRandomNode();
-                    Node destination = olsr.getRandomNode();
-
-                    olsr.ping(source, destination);
-                    tora.ping(source, destination);
-                    
-                    int tora_overhead = tora.getTotalPacketsRecieved();
-                    int olsr_overhead = olsr.getTotalPacketsRecieved();
-
-                    toraBSeries.add(tora_overhead);
-                    olsrBSeries.add(olsr_overhead);
-                }
+        // Each test builds its own network, so they run on a ParallelTeam,
+        // unless the trials of each test run on the one team
+        final int nl = NL;
+        final int nu = NU;
+        final int trials = num_trials;
+        final ParallelTeam team = Trials.parallel() ? new ParallelTeam() : null;
+        Trials.forEachTest(num_tests, team, test -> runTest(test, test_seeds[test], nl, nu, trials, team, sink));
 
-                Series.Stats toraTrialsStats = toraBSeries.stats();
-                Series.Stats olsrTrialsStats = olsrBSeries.stats();
-
-                tora_results.get(test).add(toraTrialsStats.mean);
-                olsr_results.get(test).add(olsrTrialsStats.mean);
-            }
-        }
 
+        ResultSink.Summary summary = sink.summarize();
         ListXYSeries tora_averages = new ListXYSeries();
         ListXYSeries olsr_averages = new ListXYSeries();
 
         System.out.println("      Overhead Averages         ");
         System.out.println("N Nodes     TORA        OLSR    ");
 
-        int i = 0;
         for (int n = NU; n >= NL; n--){
             if(n == 0) {
                 tora_averages.add(n, 0);
@@ -121,22 +90,13 @@ public class PingOverheadDecayTest {
                 continue;
             }
 
-            ListSeries toraBSeries = new ListSeries();
-            ListSeries olsrBSeries = new ListSeries();
+            double tora_mean = summary.mean(n, "TORA", "overhead");
+            double olsr_mean = summary.mean(n, "OLSR", "overhead");
 
-            for (int t = 0; t < num_tests; t++) {
-                toraBSeries.add(tora_results.get(t).get(i));
-                olsrBSeries.add(olsr_results.get(t).get(i));
-            }
-
-            Series.Stats toraTestStats = toraBSeries.stats();
-            Series.Stats olsrTestStats = olsrBSeries.stats();
+            tora_averages.add(n, tora_mean);
+            olsr_averages.add(n, olsr_mean);
 
-            tora_averages.add(n, toraTestStats.mean);
-            olsr_averages.add(n, olsrTestStats.mean);
-            i++;
-
-            System.out.printf ("%3d       %7.2f    %7.2f %n", n, toraTestStats.mean, olsrTestStats.mean);
+            System.out.printf ("%3d       %7.2f    %7.2f %n", n, tora_mean, olsr_mean);
         }
 
         System.out.println("-----------------------------------------");
@@ -144,22 +104,110 @@ public class PingOverheadDecayTest {
         System.out.printf ("T Value: %.3f    P Value: %.3f %n", ttest[0], ttest[1]);
         
         // Now that we ran through the tests, time to do some stats
-        new Plot()
-         .plotTitle ("Overhead during Pings (Decay)")
-         .xAxisTitle ("Nodes N in Network")
-         .yAxisTitle ("Packets Recieved")
-         .xAxisStart (NU)
-         .xAxisEnd (NL)
-         .seriesStroke (Strokes.solid (1))
-         .seriesDots (null)
-         .seriesColor (Color.RED)
-         .xySeries (tora_averages)
-         .seriesStroke (Strokes.solid (1))
-         .seriesColor (Color.BLUE)
-         .xySeries (olsr_averages)
-         .getFrame()
-         .setVisible (true);
+        if (ResultSink.plotting()) {
+            new Plot()
+             .plotTitle ("Overhead during Pings (Decay)")
+             .xAxisTitle ("Nodes N in Network")
+             .yAxisTitle ("Packets Recieved")
+             .xAxisStart (NU)
+             .xAxisEnd (NL)
+             .seriesStroke (Strokes.solid (1))
+             .seriesDots (null)
+             .seriesColor (Color.RED)
+             .xySeries (tora_averages)
+             .seriesStroke (Strokes.solid (1))
+             .seriesColor (Color.BLUE)
+             .xySeries (olsr_averages)
+             .getFrame()
+             .setVisible (true);
+        }
          
     }
 
+
+    /**
+     * runTest(test, seeds, ...)
+     * 	Runs one test on its own network, seeded with the three seeds drawn
+     * 	for it. Every result goes straight to the sink.
+     *
+     * @param team - runs the trials of one size at once, null for one at a time
+     */
+    private static void runTest(int test, long[] seeds, int NL, int NU, int num_trials,
+            ParallelTeam team, ResultSink sink) throws Exception {
+        System.out.println("Test " + (test + 1) + "...");
+
+        // make the MANET
+        Manet network = new UniformManet(seeds[0]);
+        network.generateNode();
+
+        for (int i = 1; i <= NU; i++) {
+            network.generateNode();
+        }
+
+        // Wrap it with the protocols
+        TORAWrapper tora = new TORAWrapper(network, seeds[1]);
+        OLSRWrapper olsr = new OLSRWrapper(network, seeds[2]);
+
+        for (int i = NU; i >= NL; i--) {
+            network.removeLastNode();
+
+            // GET OVERHEAD HERE
+            ListSeries toraBSeries = new ListSeries();
+            ListSeries olsrBSeries = new ListSeries();
+
+            if (team != null) {
+                // Pairs are drawn in the same order as one trial at a time
+                Node[] sources = new Node[num_trials];
+                Node[] destinations = new Node[num_trials];
+                for (int trial = 0; trial < num_trials; trial++) {
+                    sources[trial] = olsr.getRandomNode();
+                    destinations[trial] = olsr.getRandomNode();
+                }
+
+                // OLSR pings over the snapshot the same as over the network,
+                // so its trials run at once. TORA keeps heights from one ping
+                // to the next, so its trials run in order on the network
+                Topology topology = network.snapshot();
+                int[] olsr_results = new int[num_trials];
+
+                Trials.run(team, num_trials, trial -> {
+                    olsr.beginTrial();
+                    olsr.ping(topology, sources[trial], destinations[trial]);
+                    olsr_results[trial] = olsr.getTotalPacketsRecieved();
+                    olsr.endTrial();
+                });
+
+                for (int trial = 0; trial < num_trials; trial++) {
+                    tora.clearMetrics();
+                    tora.ping(sources[trial], destinations[trial]);
+                    toraBSeries.add(tora.getTotalPacketsRecieved());
+                    olsrBSeries.add(olsr_results[trial]);
+                }
+            } else {
+                for (int trial = 0; trial < num_trials; trial++) {
+                    olsr.clearMetrics();
+                    tora.clearMetrics();
+                
+                    Node source = olsr.getRandomNode();
+                    Node destination = olsr.getRandomNode();
+
+                    olsr.ping(source, destination);
+                    tora.ping(source, destination);
+                
+                    int tora_overhead = tora.getTotalPacketsRecieved();
+                    int olsr_overhead = olsr.getTotalPacketsRecieved();
+
+                    toraBSeries.add(tora_overhead);
+                    olsrBSeries.add(olsr_overhead);
+                }
+            }
+
+            Series.Stats toraTrialsStats = toraBSeries.stats();
+            Series.Stats olsrTrialsStats = olsrBSeries.stats();
+
+            sink.write(test, i, "TORA", "overhead", toraTrialsStats.mean);
+            sink.write(test, i, "OLSR", "overhead", olsrTrialsStats.mean);
+        }
+    }
+
 }
\ No newline at end of file
@@ -1,5 +1,5 @@
 import java.util.Random;
-import java.util.ArrayList;
+import edu.rit.pj.ParallelTeam;
 import java.util.LinkedList;
 import edu.rit.numeric.ListSeries;
 import edu.rit.numeric.ListXYSeries;
@@ -15,7 +15,7 @@ import java.awt.Color;
 public class PingThroughputGrowthTest {
 
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws Exception {
         int NU = 0;
         int NL = 0;
         int num_tests = 0;
@@ -23,8 +23,9 @@ public class PingThroughputGrowthTest {
         long seed = 0;
 
         // Argument Validation
-        if (args.length != 5) {
-            System.out.println("Usage: java PingThroughputGrowthTest <NL> <NU> <tests> <trials> <seed>");
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java PingThroughputGrowthTest <NL> <NU> <tests> <trials> <seed> [results.csv|results.jsonl]");
+            System.out.println("  -Dtrials=parallel runs the OLSR trials of each size at once, the TORA ones still run in order");
             System.exit(1);
         }
 
@@ -53,108 +54,151 @@ public class PingThroughputGrowthTest {
 
         Random seed_generator = new Random(seed);
 
-        ArrayList< ArrayList<Double> > tora_results = new ArrayList< ArrayList<Double> >(num_tests);
-        ArrayList< ArrayList<Double> > olsr_results = new ArrayList< ArrayList<Double> >(num_tests);
+        // Results are streamed out as they come, and summed up at the end
+        final ResultSink sink = ResultSink.open(args.length == 6 ? args[5] : null);
 
 
+        // Draw every seed up front, in the order the tests used to draw them,
+        // so running the tests in parallel gives the same results
+        final long[][] test_seeds = new long[num_tests][3];
         for (int test = 0; test < num_tests; test++) {
-            System.out.println("Test " + (test + 1) + "...");
+            for (int s = 0; s < 3; s++) {
+                test_seeds[test][s] = seed_generator.nextLong();
+            }
+        }
 
-            tora_results.add(test, new ArrayList<Double>());
-            olsr_results.add(test, new ArrayList<Double>());
+        // Each test builds its own network, so they run on a ParallelTeam,
+        // unless the trials of each test run on the one team
+        final int nl = NL;
+        final int nu = NU;
+        final int trials = num_trials;
+        final ParallelTeam team = Trials.parallel() ? new ParallelTeam() : null;
+        Trials.forEachTest(num_tests, team, test -> runTest(test, test_seeds[test], nl, nu, trials, team, sink));
 
-            // make the MANET
-            Manet network = new UniformManet(seed_generator.nextLong());
-            network.generateNode();
 
-            // Wrap it with the protocols
-            TORAWrapper tora = new TORAWrapper(network, seed_generator.nextLong());
-            OLSRWrapper olsr = new OLSRWrapper(network, seed_generator.nextLong());
+        ResultSink.Summary summary = sink.summarize();
+        ListXYSeries tora_averages = new ListXYSeries();
+        ListXYSeries olsr_averages = new ListXYSeries();
 
-            tora_results.get(test).add(1.0);
-            olsr_results.get(test).add(1.0);
+        System.out.println("      Throughput Averages       ");
+        System.out.println("N Nodes     TORA        OLSR    ");
 
+        for (int n = NL; n <= NU; n++ ){
+            
+            double tora_mean = summary.mean(n, "TORA", "hops");
+            double olsr_mean = summary.mean(n, "OLSR", "hops");
 
-            for (int i = 1; i < NL; i++) {
-                network.generateNode();
-            }
+            tora_averages.add(n - NL, tora_mean);
+            olsr_averages.add(n - NL, olsr_mean);
 
-            for (int i = NL; i <= NU; i++) {
-                network.generateNode();
+            System.out.printf ("%3d       %7.2f    %7.2f %n", n, tora_mean, olsr_mean);
+        }
 
-                // GET OVERHEAD HERE
-                ListSeries toraBSeries = new ListSeries();
-                ListSeries olsrBSeries = new ListSeries();
+        System.out.println("-----------------------------------------");
+        double[] ttest = Statistics.tTestUnequalVariance(tora_averages.ySeries(), olsr_averages.ySeries());
+        System.out.printf ("T Value: %.3f    P Value: %.3f %n", ttest[0], ttest[1]);
+        
+        // Now that we ran through the tests, time to do some stats
+        if (ResultSink.plotting()) {
+            new Plot()
+             .plotTitle ("Throughput during Pings (Growth)")
+             .xAxisTitle ("Nodes N in Network")
+             .yAxisTitle ("Number of Hops")
+             .seriesStroke (Strokes.solid (1))
+             .seriesDots (null)
+             .seriesColor (Color.RED)
+             .xySeries (tora_averages)
+             .seriesStroke (Strokes.solid (1))
+             .seriesColor (Color.BLUE)
+             .xySeries (olsr_averages)
+             .getFrame()
+             .setVisible (true);
+        }
+         
+    }
 
-                for (int trial = 0; trial < num_trials; trial++) {
 
-                    Node source = olsr.getRandomNode();
-                    Node destination = olsr.getRandomNode();
+    /**
+     * runTest(test, seeds, ...)
+     * 	Runs one test on its own network, seeded with the three seeds drawn
+     * 	for it. Every result goes straight to the sink.
+     *
+     * @param team - runs the trials of one size at once, null for one at a time
+     */
+    private static void runTest(int test, long[] seeds, int NL, int NU, int num_trials,
+            ParallelTeam team, ResultSink sink) throws Exception {
+        System.out.println("Test " + (test + 1) + "...");
 
-                    LinkedList<Node> olsr_path = olsr.ping(source, destination);
-                    LinkedList<Node> tora_path = tora.ping(source, destination);
+        // make the MANET
+        Manet network = new UniformManet(seeds[0]);
+        network.generateNode();
 
-                    toraBSeries.add(tora_path.size());
-                    olsrBSeries.add(olsr_path.size());
-                }
+        // Wrap it with the protocols
+        TORAWrapper tora = new TORAWrapper(network, seeds[1]);
+        OLSRWrapper olsr = new OLSRWrapper(network, seeds[2]);
 
-                Series.Stats toraTrialsStats = toraBSeries.stats();
-                Series.Stats olsrTrialsStats = olsrBSeries.stats();
+        sink.write(test, NL, "TORA", "hops", 1.0);
+        sink.write(test, NL, "OLSR", "hops", 1.0);
 
-                //System.out.println(toraTrialsStats.mean + " VS " + olsrTrialsStats.mean);
 
-                tora_results.get(test).add(toraTrialsStats.mean);
-                olsr_results.get(test).add(olsrTrialsStats.mean);
-            }
+        for (int i = 1; i < NL; i++) {
+            network.generateNode();
         }
 
-        ListXYSeries tora_averages = new ListXYSeries();
-        ListXYSeries olsr_averages = new ListXYSeries();
-
-        System.out.println("      Throughput Averages       ");
-        System.out.println("N Nodes     TORA        OLSR    ");
+        for (int i = NL; i <= NU; i++) {
+            network.generateNode();
 
-        int i = 0;
-        for (int n = NL; n <= NU; n++ ){
-            
+            // GET OVERHEAD HERE
             ListSeries toraBSeries = new ListSeries();
             ListSeries olsrBSeries = new ListSeries();
 
-            for (int t = 0; t < num_tests; t++) {
-                toraBSeries.add(tora_results.get(t).get(i));
-                olsrBSeries.add(olsr_results.get(t).get(i));
-            }
+            if (team != null) {
+                // Pairs are drawn in the same order as one trial at a time
+                Node[] sources = new Node[num_trials];
+                Node[] destinations = new Node[num_trials];
+                for (int trial = 0; trial < num_trials; trial++) {
+                    sources[trial] = olsr.getRandomNode();
+                    destinations[trial] = olsr.getRandomNode();
+                }
 
-            Series.Stats toraTestStats = toraBSeries.stats();
-            Series.Stats olsrTestStats = olsrBSeries.stats();
+                // OLSR pings over the snapshot the same as over the network,
+                // so its trials run at once. TORA keeps heights from one ping
+                // to the next, so its trials run in order on the network
+                Topology topology = network.snapshot();
+                int[] olsr_results = new int[num_trials];
 
-            tora_averages.add(n - NL, toraTestStats.mean);
-            olsr_averages.add(n - NL, olsrTestStats.mean);
+                Trials.run(team, num_trials, trial -> {
+                    olsr.beginTrial();
+                    olsr_results[trial] = olsr.ping(topology, sources[trial], destinations[trial]).size();
+                    olsr.endTrial();
+                });
 
-            System.out.printf ("%3d       %7.2f    %7.2f %n", n, toraTestStats.mean, olsrTestStats.mean);
+                for (int trial = 0; trial < num_trials; trial++) {
+                    toraBSeries.add(tora.ping(sources[trial], destinations[trial]).size());
+                    olsrBSeries.add(olsr_results[trial]);
+                }
+            } else {
+                for (int trial = 0; trial < num_trials; trial++) {
 
-            i++;
-        }
+                    Node source = olsr.getRandomNode();
+                    Node destination = olsr.getRandomNode();
 
-        System.out.println("-----------------------------------------");
-        double[] ttest = Statistics.tTestUnequalVariance(tora_averages.ySeries(), olsr_averages.ySeries());
-        System.out.printf ("T Value: %.3f    P Value: %.3f %n", ttest[0], ttest[1]);
-        
-        // Now that we ran through the tests, time to do some stats
-        new Plot()
-         .plotTitle ("Throughput during Pings (Growth)")
-         .xAxisTitle ("Nodes N in Network")
-         .yAxisTitle ("Number of Hops")
-         .seriesStroke (Strokes.solid (1))
-         .seriesDots (null)
-         .seriesColor (Color.RED)
-         .xySeries (tora_averages)
-         .seriesStroke (Strokes.solid (1))
-         .seriesColor (Color.BLUE)
-         .xySeries (olsr_averages)
-         .getFrame()
-         .setVisible (true);
-         
+                    LinkedList<Node> olsr_path = olsr.ping(source, destination);
+                    LinkedList<Node> tora_path = tora.ping(source, destination);
+
+                    toraBSeries.add(tora_path.size());
+                    olsrBSeries.add(olsr_path.size());
+                }
+            }
+
+            Series.Stats toraTrialsStats = toraBSeries.stats();
+            Series.Stats olsrTrialsStats = olsrBSeries.stats();
+
+            //System.out.println(toraTrialsStats.mean + " VS " + olsrTrialsStats.mean);
+
+            sink.write(test, i + 1, "TORA", "hops", toraTrialsStats.mean);
+            sink.write(test, i + 1, "OLSR", "hops", olsrTrialsStats.mean);
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,253 @@
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+
+/**
+ * ResultSink - streams the results of a test to a file as soon as they are
+ * 	computed, instead of keeping every test and size in memory.
+ *
+ * Each result is one row: test, N, protocol, metric, value.
+ * 	A file ending in .jsonl holds one JSON object per row, any other file is
+ * 	CSV with a header. Rows go through a buffer written out with a
+ * 	FileChannel, and several tests can write at once.
+ * 	Without a file the rows go to a temporary one, removed once summarized.
+ *
+ * summarize() then reads the file back in one streaming pass, keeping only
+ * 	running sums per (N, protocol, metric).
+ */
+public class ResultSink {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Path path;
+    private final boolean json;
+    private final boolean temporary;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private StringBuilder line;
+
+
+    private ResultSink(Path path, boolean temporary) throws IOException {
+        this.path = path;
+        this.json = path.toString().endsWith(".jsonl");
+        this.temporary = temporary;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        this.line = new StringBuilder();
+
+        if (!json) {
+            append("test,n,protocol,metric,value\n");
+        }
+    }
+
+
+    /**
+     * open(file)
+     *
+     * @param file - CSV or .jsonl file to write, null for a temporary one
+     */
+    public static ResultSink open(String file) throws IOException {
+        if (file == null) {
+            return new ResultSink(Files.createTempFile("results", ".csv"), true);
+        }
+        return new ResultSink(Paths.get(file), false);
+    }
+
+
+    /**
+     * write(test, n, protocol, metric, value)
+     * 	Adds one row. Names must not hold commas or quotes.
+     */
+    public synchronized void write(int test, int n, String protocol, String metric, double value) throws IOException {
+        if (protocol.matches(".*[,\"].*") || metric.matches(".*[,\"].*")) {
+            throw new IllegalArgumentException("Bad name in row " + protocol + " " + metric);
+        }
+
+        line.setLength(0);
+        if (json) {
+            line.append("{\"test\":").append(test)
+                .append(",\"n\":").append(n)
+                .append(",\"protocol\":\"").append(protocol)
+                .append("\",\"metric\":\"").append(metric)
+                .append("\",\"value\":").append(Double.isNaN(value) ? "null" : Double.toString(value))
+                .append("}\n");
+        } else {
+            line.append(test).append(',').append(n).append(',').append(protocol)
+                .append(',').append(metric).append(',').append(value).append('\n');
+        }
+        append(line);
+    }
+
+    private void append(CharSequence text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+
+    /**
+     * close()
+     * 	Writes out the buffered rows. The sink takes no more rows after.
+     */
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        flush();
+        channel.close();
+        channel = null;
+    }
+
+
+    /**
+     * summarize()
+     * 	Closes the sink and summarizes what it wrote, see summarize(file).
+     */
+    public Summary summarize() throws IOException {
+        close();
+        try {
+            return summarize(path.toString());
+        } finally {
+            if (temporary) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+
+    /**
+     * summarize(file)
+     * 	Streams through a result file, CSV or JSON lines, and sums up the
+     * 	values of every (N, protocol, metric) over the tests.
+     */
+    public static Summary summarize(String file) throws IOException {
+        Summary summary = new Summary();
+        boolean json = file.endsWith(".jsonl");
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String row;
+            boolean header = !json;
+            while ((row = reader.readLine()) != null) {
+                if (header || row.isEmpty()) {
+                    header = false;
+                    continue;
+                }
+
+                if (json) {
+                    summary.add(Integer.parseInt(field(row, "n")), field(row, "protocol"),
+                            field(row, "metric"), parseValue(field(row, "value")));
+                } else {
+                    String[] fields = row.split(",");
+                    summary.add(Integer.parseInt(fields[1]), fields[2], fields[3], parseValue(fields[4]));
+                }
+            }
+        }
+        return summary;
+    }
+
+    // Only reads back the flat objects written by this class
+    private static String field(String row, String name) throws IOException {
+        String key = "\"" + name + "\":";
+        int start = row.indexOf(key);
+        if (start < 0) {
+            throw new IOException("No " + name + " in row " + row);
+        }
+        start += key.length();
+
+        int end = start;
+        while (end < row.length() && row.charAt(end) != ',' && row.charAt(end) != '}') {
+            end++;
+        }
+        String value = row.substring(start, end);
+        return value.startsWith("\"") ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private static double parseValue(String value) {
+        return value.equals("null") ? Double.NaN : Double.parseDouble(value);
+    }
+
+
+    /**
+     * plotting()
+     * 	Plots need a display, and can be turned off with -Dplot=false.
+     *
+     * @return true if the test should show its Plot
+     */
+    public static boolean plotting() {
+        return !GraphicsEnvironment.isHeadless() && !"false".equals(System.getProperty("plot"));
+    }
+
+
+    /**
+     * Summary - running count, sum and sum of squares per (N, protocol,
+     * 	metric), so it only grows with the sizes, not with the tests.
+     */
+    public static class Summary {
+
+        private HashMap<String, double[]> sums = new HashMap<String, double[]>();
+
+        void add(int n, String protocol, String metric, double value) {
+            String key = n + "," + protocol + "," + metric;
+            double[] sum = sums.get(key);
+            if (sum == null) {
+                sum = new double[3];
+                sums.put(key, sum);
+            }
+            sum[0]++;
+            sum[1] += value;
+            sum[2] += value * value;
+        }
+
+        private double[] get(int n, String protocol, String metric) {
+            double[] sum = sums.get(n + "," + protocol + "," + metric);
+            return (sum != null) ? sum : new double[3];
+        }
+
+        public int count(int n, String protocol, String metric) {
+            return (int) get(n, protocol, metric)[0];
+        }
+
+        public double mean(int n, String protocol, String metric) {
+            double[] sum = get(n, protocol, metric);
+            return sum[1] / sum[0];
+        }
+
+        // Sample standard deviation over the tests
+        public double stddev(int n, String protocol, String metric) {
+            double[] sum = get(n, protocol, metric);
+            if (sum[0] < 2) {
+                return 0.0;
+            }
+            double variance = (sum[2] - sum[1] * sum[1] / sum[0]) / (sum[0] - 1);
+            return Math.sqrt(Math.max(0.0, variance));
+        }
+    }
+}
\ No newline at end of file
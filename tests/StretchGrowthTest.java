@@ -0,0 +1,170 @@
+import java.util.Random;
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+import edu.rit.numeric.ListXYSeries;
+import edu.rit.numeric.plot.Plot;
+import edu.rit.numeric.plot.Strokes;
+import java.awt.Color;
+
+
+/* TEST 8 - Diameter and mean path length of a growing network, and the
+ * 	stretch of the routes of each protocol against the shortest paths
+ */
+public class StretchGrowthTest {
+
+
+    public static void main(String args[]) throws Exception {
+        int NU = 0;
+        int NL = 0;
+        int num_tests = 0;
+        int num_trials = 0;
+        long seed = 0;
+
+        // Argument Validation
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java StretchGrowthTest <NL> <NU> <tests> <trials> <seed> [results.csv|results.jsonl]");
+            System.exit(1);
+        }
+
+        try {
+            NL = Integer.parseInt(args[0]);
+            NU = Integer.parseInt(args[1]);
+            num_tests = Integer.parseInt(args[2]);
+            num_trials = Integer.parseInt(args[3]);
+
+            seed = Long.parseLong(args[4]);
+        }
+        catch (Exception e) {
+            System.out.println("Error - All arguments must be numerical.");
+            System.exit(1);
+        }
+
+        if (NL < 1) {
+            System.out.println("Error - NL must be a positive number.");
+            System.exit(1);
+        }
+
+        if (NU <= NL) {
+            System.out.println("Error - NU must be greater than NL.");
+            System.exit(1);
+        }
+
+        Random seed_generator = new Random(seed);
+
+        // Results are streamed out as they come, and summed up at the end
+        final ResultSink sink = ResultSink.open(args.length == 6 ? args[5] : null);
+
+
+        // Draw every seed up front, so running the tests in parallel gives
+        // the same results
+        final long[][] test_seeds = new long[num_tests][3];
+        for (int test = 0; test < num_tests; test++) {
+            for (int s = 0; s < 3; s++) {
+                test_seeds[test][s] = seed_generator.nextLong();
+            }
+        }
+
+        // Each test builds its own network, so they run on a ParallelTeam
+        final int nl = NL;
+        final int nu = NU;
+        final int tests = num_tests;
+        final int trials = num_trials;
+        new ParallelTeam().execute(new ParallelRegion() {
+            public void run() throws Exception {
+                execute(0, tests - 1, new IntegerForLoop() {
+                    public IntegerSchedule schedule() { return IntegerSchedule.dynamic(1); }
+
+                    public void run(int first, int last) throws Exception {
+                        for (int test = first; test <= last; test++) {
+                            runTest(test, test_seeds[test], nl, nu, trials, sink);
+                        }
+                    }
+                });
+            }
+        });
+
+
+        ResultSink.Summary summary = sink.summarize();
+        ListXYSeries tora_averages = new ListXYSeries();
+        ListXYSeries olsr_averages = new ListXYSeries();
+
+        System.out.println("            Stretch Averages                  ");
+        System.out.println("N Nodes  Diameter  Mean Hops   TORA      OLSR ");
+
+        for (int n = NL; n <= NU; n++ ){
+
+            double diameter = summary.mean(n, "NETWORK", "diameter");
+            double path_length = summary.mean(n, "NETWORK", "pathlength");
+            double tora_mean = summary.mean(n, "TORA", "stretch");
+            double olsr_mean = summary.mean(n, "OLSR", "stretch");
+
+            tora_averages.add(n, tora_mean);
+            olsr_averages.add(n, olsr_mean);
+
+            System.out.printf ("%3d      %6.2f    %7.3f   %7.3f   %7.3f %n", n, diameter, path_length, tora_mean, olsr_mean);
+        }
+
+        if (ResultSink.plotting()) {
+            new Plot()
+             .plotTitle ("Route Stretch (Growth)")
+             .xAxisTitle ("Nodes N in Network")
+             .yAxisTitle ("Route Hops / Shortest Hops")
+             .seriesStroke (Strokes.solid (1))
+             .seriesDots (null)
+             .seriesColor (Color.RED)
+             .xySeries (tora_averages)
+             .seriesStroke (Strokes.solid (1))
+             .seriesColor (Color.BLUE)
+             .xySeries (olsr_averages)
+             .getFrame()
+             .setVisible (true);
+        }
+    }
+
+
+    /**
+     * runTest(test, seeds, ...)
+     * 	Runs one test on its own network, seeded with the three seeds drawn
+     * 	for it. Every result goes straight to the sink.
+     */
+    private static void runTest(int test, long[] seeds, int NL, int NU, int num_trials,
+            ResultSink sink) throws Exception {
+        System.out.println("Test " + (test + 1) + "...");
+
+        // make the MANET
+        Manet network = new UniformManet(seeds[0]);
+        network.generateNode();
+
+        for (int i = 1; i < NL; i++) {
+            network.generateNode();
+        }
+
+        // Wrap it with the protocols
+        TORAWrapper tora = new TORAWrapper(network, seeds[1]);
+        OLSRWrapper olsr = new OLSRWrapper(network, seeds[2]);
+
+        for (int i = NL; i <= NU; i++) {
+            if (i > NL) {
+                network.generateNode();
+            }
+
+            // Every pair of the network, 64 sources per search
+            MultiSourceBFS.Stats stats = MultiSourceBFS.stats(network.snapshot());
+            sink.write(test, i, "NETWORK", "diameter", stats.getDiameter());
+            sink.write(test, i, "NETWORK", "pathlength", stats.getMeanPathLength());
+
+            Node[] sources = new Node[num_trials];
+            Node[] destinations = new Node[num_trials];
+            for (int trial = 0; trial < num_trials; trial++) {
+                sources[trial] = olsr.getRandomNode();
+                destinations[trial] = olsr.getRandomNode();
+            }
+
+            sink.write(test, i, "TORA", "stretch", tora.stretch(sources, destinations).getMean());
+            sink.write(test, i, "OLSR", "stretch", olsr.stretch(sources, destinations).getMean());
+        }
+    }
+
+}
\ No newline at end of file
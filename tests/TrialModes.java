@@ -0,0 +1,73 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/* CHECK - Runs a test with its trials one at a time, then with
+ * 	-Dtrials=parallel, and checks that both print the same tables
+ */
+public class TrialModes {
+
+
+    public static void main(String args[]) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java TrialModes <test> [test arguments...]");
+            System.out.println("  e.g. java TrialModes PingOverheadGrowthTest 20 60 4 20 7");
+            System.exit(1);
+        }
+
+        String[] test_args = new String[args.length - 1];
+        System.arraycopy(args, 1, test_args, 0, test_args.length);
+        Method test = Class.forName(args[0]).getMethod("main", String[].class);
+
+        System.setProperty("plot", "false");
+        System.clearProperty("trials");
+        List<String> sequential = run(test, test_args);
+        System.setProperty("trials", "parallel");
+        List<String> parallel = run(test, test_args);
+
+        int differences = 0;
+        for (int k = 0; k < Math.max(sequential.size(), parallel.size()); k++) {
+            String expected = k < sequential.size() ? sequential.get(k) : "";
+            String actual = k < parallel.size() ? parallel.get(k) : "";
+            if (!expected.equals(actual)) {
+                System.out.println("sequential: " + expected);
+                System.out.println("parallel:   " + actual);
+                differences++;
+            }
+        }
+
+        if (differences > 0) {
+            System.out.println(args[0] + ": " + differences + " lines differ");
+            System.exit(1);
+        }
+        System.out.println(args[0] + ": the same " + sequential.size() + " lines in both modes");
+    }
+
+
+    /**
+     * run(test, args)
+     * 	Runs the main() of a test, and keeps what it prints but the
+     * 	progress lines, which come in any order when tests run at once.
+     */
+    private static List<String> run(Method test, String[] args) throws Exception {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, true));
+        try {
+            test.invoke(null, (Object) args);
+        } finally {
+            System.setOut(out);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        for (String line : buffer.toString().split("\\R")) {
+            if (!line.startsWith("Test ")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+import edu.rit.pj.IntegerForLoop;
+import edu.rit.pj.IntegerSchedule;
+import edu.rit.pj.ParallelRegion;
+import edu.rit.pj.ParallelTeam;
+
+
+/**
+ * Trials - runs the ping trials of one network size at once, on a
+ * 	ParallelTeam, when asked for with -Dtrials=parallel.
+ *
+ * Every trial counts into its own context, see ManetWrapper.beginTrial(),
+ * 	and pings over one Topology taken before the trials start. Results
+ * 	are kept by trial index, so reducing them afterwards does not depend
+ * 	on which thread ran which trial.
+ * 	Only OLSR pings this way, its ping over a Topology takes the same
+ * 	route and counts the same packets as over the network. TORA keeps
+ * 	heights between pings, which its ping over a Topology does not, so
+ * 	its trials still run one after the other on the network, and a
+ * 	parallel run only speeds up the OLSR half. Running them at once would
+ * 	need a copy of the DAGs, the logical clock and the serials per group
+ * 	of trials, and each group would then no longer see the heights left
+ * 	by the pings of the others, which the tables measure.
+ * 	TrialModes checks that both modes print the same tables.
+ */
+public class Trials {
+
+    /**
+     * Trial - one ping trial, or one test, storing its results at its own
+     * 	index.
+     */
+    public interface Trial {
+        public void run(int trial) throws Exception;
+    }
+
+
+    /**
+     * parallel()
+     *
+     * @return true if the tests should run their trials with run()
+     */
+    public static boolean parallel() {
+        return "parallel".equals(System.getProperty("trials"));
+    }
+
+
+    /**
+     * forEachTest(num_tests, team, test)
+     * 	Runs tests 0 up to num_tests - 1. Without a trial team they run at
+     * 	once on a ParallelTeam of their own, with one they run one after the
+     * 	other and their trials take the threads, so there is only ever one
+     * 	team of threads at work.
+     *
+     * @param team - the team the tests run their trials on, or null
+     */
+    public static void forEachTest(final int num_tests, ParallelTeam team, final Trial test) throws Exception {
+        if (team != null) {
+            for (int k = 0; k < num_tests; k++) {
+                test.run(k);
+            }
+            return;
+        }
+        run(new ParallelTeam(), num_tests, IntegerSchedule.dynamic(1), test);
+    }
+
+
+    /**
+     * run(team, num_trials, trial)
+     * 	Runs trials 0 up to num_trials - 1 on the team, and returns once
+     * 	all of them are done.
+     */
+    public static void run(ParallelTeam team, final int num_trials, final Trial trial) throws Exception {
+        run(team, num_trials, IntegerSchedule.guided(), trial);
+    }
+
+    private static void run(ParallelTeam team, final int num_trials, final IntegerSchedule schedule,
+            final Trial trial) throws Exception {
+        if (num_trials < 1) {
+            return;
+        }
+
+        team.execute(new ParallelRegion() {
+            public void run() throws Exception {
+                execute(0, num_trials - 1, new IntegerForLoop() {
+                    public IntegerSchedule schedule() { return schedule; }
+
+                    public void run(int first, int last) throws Exception {
+                        for (int k = first; k <= last; k++) {
+                            trial.run(k);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
\ No newline at end of file
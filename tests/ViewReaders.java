@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/* CHECK - Readers ping the published views of a network from other
+ * 	threads while it grows, moves and decays. Every route must hold in
+ * 	its view, and the live metrics must come out the same as without
+ * 	readers
+ */
+public class ViewReaders {
+
+    static final PacketType[] TYPES = PacketType.values();
+
+
+    public static void main(String args[]) throws Exception {
+        int NU = 0;
+        int num_readers = 0;
+        long seed = 0;
+
+        if (args.length != 3) {
+            System.out.println("Usage: java ViewReaders <NU> <readers> <seed>");
+            System.exit(1);
+        }
+
+        try {
+            NU = Integer.parseInt(args[0]);
+            num_readers = Integer.parseInt(args[1]);
+            seed = Long.parseLong(args[2]);
+        }
+        catch (Exception e) {
+            System.out.println("Error - All arguments must be numerical.");
+            System.exit(1);
+        }
+
+        if (NU < 10 || num_readers < 1) {
+            System.out.println("Error - NU must be at least 10, and there must be a reader.");
+            System.exit(1);
+        }
+
+        long[] alone = run(NU, 0, seed);
+        long[] read = run(NU, num_readers, seed);
+
+        boolean same = true;
+        for (int k = 0; k < alone.length; k++) {
+            if (alone[k] != read[k]) {
+                System.out.println("Live metric " + k + ": " + alone[k] + " without readers, " + read[k] + " with");
+                same = false;
+            }
+        }
+        if (!same) {
+            System.exit(1);
+        }
+        System.out.println("The live metrics are the same with " + num_readers + " readers");
+    }
+
+
+    /**
+     * run(NU, num_readers, seed)
+     * 	Runs the writer, with readers pinging its views until it is done.
+     *
+     * @return the live packet counts of both protocols at the end
+     */
+    private static long[] run(int NU, int num_readers, long seed) throws Exception {
+        Random seeds = new Random(seed);
+        final UniformManet network = new UniformManet(seeds.nextLong());
+        network.generateNodes(NU / 2);
+
+        final TORAWrapper tora = new TORAWrapper(network, seeds.nextLong());
+        final OLSRWrapper olsr = new OLSRWrapper(network, seeds.nextLong());
+        Mobility mobility = new RandomWaypointMobility(network, seeds.nextLong(), 0.02, 0.1, 1.0);
+        network.setPublishing(true);
+        Random prng = new Random(seeds.nextLong());
+
+        final ManetWrapper[] protocols = { olsr, tora };
+        final AtomicLong pings = new AtomicLong();
+        final AtomicLong views = new AtomicLong();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final boolean[] done = { false };
+
+        Thread[] readers = new Thread[num_readers];
+        for (int r = 0; r < num_readers; r++) {
+            final long reader_seed = seeds.nextLong();
+            readers[r] = new Thread(() -> {
+                try {
+                    read(network, protocols, new Random(reader_seed), done, pings, views);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            readers[r].start();
+        }
+
+        // The writer, with live pings of its own along the way
+        try {
+            for (int round = 0; round < 4; round++) {
+                for (int i = network.size(); i < NU; i++) {
+                    network.generateNode();
+                    livePing(protocols);
+                }
+                for (int tick = 0; tick < 5; tick++) {
+                    mobility.tick(1.0);
+                    livePing(protocols);
+                }
+                network.beginBatch();
+                network.generateNodes(NU / 10);
+                network.endBatch();
+                livePing(protocols);
+                while (network.size() > NU / 2) {
+                    network.removeLastNode();
+                    livePing(protocols);
+                }
+                for (int i = 0; i < NU / 20; i++) {
+                    network.removeNode(network.getNode(prng.nextInt(network.size())));
+                    livePing(protocols);
+                }
+            }
+        } finally {
+            synchronized (done) {
+                done[0] = true;
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            for (Throwable failure : failures) {
+                failure.printStackTrace(System.out);
+            }
+            System.exit(1);
+        }
+        if (num_readers > 0) {
+            System.out.println(num_readers + " readers pinged " + pings.get() + " times over " + views.get() + " views");
+        }
+
+        long[] counts = new long[2 * (2 * TYPES.length + 1)];
+        int k = 0;
+        for (ManetWrapper protocol : protocols) {
+            ProtocolMetrics.Snapshot metrics = protocol.getMetrics().snapshot();
+            for (PacketType type : TYPES) {
+                counts[k++] = metrics.getSent(type);
+                counts[k++] = metrics.getReceived(type);
+            }
+            counts[k++] = (protocol == olsr) ? olsr.getTotalPacketsRecieved() : tora.getTotalPacketsRecieved();
+        }
+        return counts;
+    }
+
+    private static void livePing(ManetWrapper[] protocols) {
+        Node source = protocols[0].getRandomNode();
+        Node destination = protocols[0].getRandomNode();
+        for (ManetWrapper protocol : protocols) {
+            protocol.ping(source, destination);
+        }
+    }
+
+
+    /**
+     * read(network, protocols, prng, done, ...)
+     * 	Pings random pairs of the latest view until the writer is done,
+     * 	every view in a trial of its own, and checks each route against
+     * 	the links of its view. A ping outside a trial must fail, a reader
+     * 	never being the writer.
+     */
+    private static void read(Manet network, ManetWrapper[] protocols, Random prng, boolean[] done,
+            AtomicLong pings, AtomicLong views) {
+        long last_version = -1;
+        for (long k = 0; ; k++) {
+            synchronized (done) {
+                if (done[0]) {
+                    return;
+                }
+            }
+
+            Topology view = network.view();
+            if (view.getVersion() < last_version) {
+                throw new IllegalStateException("View went back from " + last_version + " to " + view.getVersion());
+            }
+            last_version = view.getVersion();
+            views.incrementAndGet();
+
+            if (k == 0) {
+                for (ManetWrapper protocol : protocols) {
+                    try {
+                        protocol.ping(view, view.getNode(0), view.getNode(0));
+                        throw new IllegalStateException("Pinged outside a trial off the writer thread");
+                    } catch (IllegalStateException e) {
+                        if (!e.getMessage().contains("beginTrial()")) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+
+            for (ManetWrapper protocol : protocols) {
+                protocol.beginTrial();
+            }
+
+            int num_pings = 0;
+            for (int p = 0; p < 4; p++) {
+                Node source = view.getNode(prng.nextInt(view.size()));
+                Node destination = view.getNode(prng.nextInt(view.size()));
+                for (ManetWrapper protocol : protocols) {
+                    check(view, protocol.ping(view, source, destination), source, destination);
+                }
+                num_pings++;
+            }
+            pings.addAndGet(num_pings * protocols.length);
+
+            for (ManetWrapper protocol : protocols) {
+                long counted = protocol.endTrial().getPings();
+                if (counted != num_pings) {
+                    throw new IllegalStateException("Trial counted " + counted + " of " + num_pings + " pings");
+                }
+            }
+        }
+    }
+
+    // The path starts with null and the source, and leaves out the destination
+    private static void check(Topology view, LinkedList<Node> path, Node source, Node destination) {
+        if (path == null || path.isEmpty()) {
+            if (FloodBFS.run(view, view.indexOf(source)).isConnected()) {
+                throw new IllegalStateException("No route in a connected view");
+            }
+            return;
+        }
+
+        ArrayList<Node> hops = new ArrayList<Node>(path);
+        hops.remove(0);
+        hops.add(destination);
+        if (hops.get(0) != source) {
+            throw new IllegalStateException("Route does not start at the source");
+        }
+        for (int i = 0; i + 1 < hops.size(); i++) {
+            if (!linked(view, view.indexOf(hops.get(i)), view.indexOf(hops.get(i + 1)))) {
+                throw new IllegalStateException("Route takes a link that is not in its view");
+            }
+        }
+    }
+
+    private static boolean linked(Topology view, int u, int v) {
+        if (u < 0 || v < 0) {
+            return u == v && u >= 0;
+        }
+        if (u == v) {
+            return true;
+        }
+        for (int i = 0; i < view.degree(u); i++) {
+            if (view.neighbor(u, i) == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
\ No newline at end of file